@@ -0,0 +1,22 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by operators that can return their tuples a
+ * {@link TupleBatch} at a time, as well as one at a time.  A batch
+ * operator reads its child with {@link TupleBatch#next}, so its child may
+ * be any DbIterator; {@link TupleBatch.Rows} reads a batch iterator one
+ * tuple at a time.
+ * <p>
+ * An open iterator must be read either with nextBatch or with
+ * hasNext/next, not both, until it is rewound.  A batch returned may be
+ * refilled by the next call to nextBatch, so it must be used up first.
+ */
+public interface BatchIterator extends DbIterator {
+
+  /**
+   * Returns the next batch of tuples.
+   * @return a batch of at least one tuple, or null if there are no more
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
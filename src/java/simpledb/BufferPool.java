@@ -1,7 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -26,8 +33,33 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    /* hashmap to hold the pages of a BufferPool*/
+    /* hashmap to hold the pages of a BufferPool, in least recently used order */
     private HashMap<PageId, Page> bufferPoolHashMap;
+
+    private volatile int numPages;
+
+    /* page locks held by transactions, acquired in getPage */
+    private final LockManager lockManager = new LockManager();
+
+    /* pins held on each cached page, counted per pinning transaction */
+    private HashMap<PageId, HashMap<TransactionId, Integer>> pinCounts;
+
+    /* dirty page table: the LSN of the first log record that dirtied each
+       page since it was last written */
+    private final HashMap<PageId, Long> recLsns = new HashMap<PageId, Long>();
+
+    /* committed page images still needed by snapshot readers */
+    private final VersionStore versions = new VersionStore();
+
+    /* number of transactions committed so far */
+    private long commitSeq = 0;
+
+    /* running snapshot transactions, and the commitSeq they read as of */
+    private final HashMap<TransactionId, Long> snapshots = new HashMap<TransactionId, Long>();
+
+    /* pages committed asynchronously but not written yet, and the
+       transaction that committed them */
+    private final HashMap<PageId, TransactionId> lazyPages = new HashMap<PageId, TransactionId>();
     
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -36,7 +68,38 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         
-        bufferPoolHashMap = new HashMap(numPages);
+        this.numPages = numPages;
+        bufferPoolHashMap = new LinkedHashMap<PageId, Page>(numPages, 0.75f, true);
+        pinCounts = new HashMap<PageId, HashMap<TransactionId, Integer>>();
+    }
+
+    /** @return the maximum number of pages in this buffer pool */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * Change the maximum number of pages in this buffer pool while it is in
+     * use.  Growing the pool takes effect immediately.  Shrinking it evicts
+     * pages one at a time, releasing the pool between evictions so that
+     * concurrent getPage calls are not stalled for the whole resize.  Pinned
+     * pages are left in place; the pool sheds them through normal eviction
+     * once they are unpinned.
+     *
+     * @param newNumPages the new maximum number of pages in this buffer pool
+     * @throws DbException if a page cannot be evicted
+     */
+    public void resize(int newNumPages) throws DbException {
+        if (newNumPages < 1)
+            throw new IllegalArgumentException("buffer pool must hold at least one page");
+        numPages = newNumPages;
+        while (true) {
+            synchronized (this) {
+                if (bufferPoolHashMap.size() <= numPages || chooseVictim() == null)
+                    return;
+                evictPage();
+            }
+        }
     }
     
     public static int getPageSize() {
@@ -70,30 +133,178 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading
+     * it through the specified ring of frames if it is not already cached.
+     * Once the ring is full, the page read through it longest ago is
+     * dropped from the pool to make room, rather than evicting a page that
+     * other transactions may still be using.  Pages that have been dirtied
+     * since they entered the ring, or that are pinned, are left to the
+     * normal eviction policy.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the ring to read through, or null to use the whole pool
+     * @see BufferRing
+     */
+    public Page getPage(TransactionId tid, PageId pid,
+            Permissions perm, BufferRing ring)
+        throws TransactionAbortedException, DbException {
     	
+    	Page snapshotPage = snapshotPage(tid, pid, perm, ring);
+    	if (snapshotPage != null)
+    		return snapshotPage;
+
+    	/* lock first, without holding the pool: this may block */
+    	if (tid != null) {
+    		lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE
+    				? LockManager.LockMode.EXCLUSIVE : LockManager.LockMode.SHARED);
+    	}
+    	return fetchPage(tid, pid, ring);
+    }
+
+    /**
+     * Start a snapshot transaction.  Until it completes, getPage gives the
+     * transaction each page as it was committed when this was called,
+     * without taking locks, so it neither blocks nor is blocked by writers.
+     * Snapshot transactions may only read pages.
+     *
+     * @param tid the ID of the transaction to read from a snapshot
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, commitSeq);
+    }
+
+    /** @return true if the specified transaction reads from a snapshot */
+    public synchronized boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
+    }
+
+    /*
+     * @return the version of the page tid's snapshot sees, or null if tid is
+     *   not a snapshot transaction
+     */
+    private synchronized Page snapshotPage(TransactionId tid, PageId pid,
+            Permissions perm, BufferRing ring) throws DbException {
+        Long snapshot = tid == null ? null : snapshots.get(tid);
+        if (snapshot == null)
+            return null;
+        if (perm == Permissions.READ_WRITE)
+            throw new DbException("snapshot transactions are read-only");
+
+        Page version = versions.find(pid, snapshot);
+        if (version != null)
+            return version;
+        // the last committed image; a copy, since writers change pages in place
+        Page page = fetchPage(tid, pid, ring);
+        unpinPage(tid, pid);
+        return page.getBeforeImage();
+    }
+
+    /* find or read the page and pin it; the caller already holds its lock */
+    private synchronized Page fetchPage(TransactionId tid, PageId pid, BufferRing ring)
+        throws DbException {
     	
-    	if(!(bufferPoolHashMap.containsKey(pid)))
-    	{
-    		/* if it is full get rid of one */
-    		if(bufferPoolHashMap.size()>= getPageSize()){
-    			evictPage();
+    	Page cachedPage = bufferPoolHashMap.get(pid);
+    	if (cachedPage != null) {
+    		pin(tid, pid);
+    		return cachedPage;
+    	}
+
+    	/* reuse the ring's oldest frame if it is still ours to reuse */
+    	if (ring != null) {
+    		PageId ringVictim = ring.victim();
+    		if (ringVictim != null && !pinCounts.containsKey(ringVictim)) {
+    			Page ringPage = bufferPoolHashMap.get(ringVictim);
+    			if (ringPage != null && ringPage.isDirty() == null)
+    				bufferPoolHashMap.remove(ringVictim);
     		}
-    		
-    		/* use the catalog to get the database file */
-    		DbFile pageFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-    		Page actualPage = pageFile.readPage(pid);
-    		bufferPoolHashMap.put(pid, actualPage);
-    		return actualPage;
-    		
-    	}else{
-    		
-    		return bufferPoolHashMap.get(pid);
     	}
-    	
+
+    	/* if it is full (or was just shrunk) get rid of one */
+    	while (bufferPoolHashMap.size() >= numPages) {
+    		evictPage();
+    	}
+
+    	/* use the catalog to get the database file */
+    	DbFile pageFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+    	Page actualPage = pageFile.readPage(pid);
+    	bufferPoolHashMap.put(pid, actualPage);
+    	if (ring != null)
+    		ring.add(pid);
+    	pin(tid, pid);
+    	return actualPage;
+    }
+
+    /**
+     * Retrieve and pin the specified page, returning a handle that unpins
+     * it when closed.  Intended for use in a try-with-resources block.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public PageHandle pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return new PageHandle(this, tid, getPage(tid, pid, perm));
+    }
+
+    /* caller must hold this */
+    private void pin(TransactionId tid, PageId pid) {
+        HashMap<TransactionId, Integer> pins = pinCounts.get(pid);
+        if (pins == null) {
+            pins = new HashMap<TransactionId, Integer>();
+            pinCounts.put(pid, pins);
+        }
+        Integer count = pins.get(tid);
+        pins.put(tid, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Drop one pin that tid holds on the specified page.  Once a page has no
+     * pins it may be evicted.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public synchronized void unpinPage(TransactionId tid, PageId pid) {
+        HashMap<TransactionId, Integer> pins = pinCounts.get(pid);
+        if (pins == null)
+            return;
+        Integer count = pins.get(tid);
+        if (count == null)
+            return;
+        if (count > 1)
+            pins.put(tid, count - 1);
+        else
+            pins.remove(tid);
+        if (pins.isEmpty())
+            pinCounts.remove(pid);
+    }
+
+    /** Return true if any transaction has the specified page pinned */
+    public synchronized boolean isPinned(PageId pid) {
+        return pinCounts.containsKey(pid);
+    }
+
+    /* drop every pin held by tid; caller must hold this */
+    private void unpinAll(TransactionId tid) {
+        Iterator<HashMap<TransactionId, Integer>> it = pinCounts.values().iterator();
+        while (it.hasNext()) {
+            HashMap<TransactionId, Integer> pins = it.next();
+            pins.remove(tid);
+            if (pins.isEmpty())
+                it.remove();
+        }
     }
 
     /**
-     * Releases the lock on a page.
+     * Releases the lock on a page, along with every pin tid holds on it.
      * Calling this is very risky, and may result in wrong behavior. Think hard
      * about who needs to call this and why, and why they can run the risk of
      * calling it.
@@ -101,9 +312,16 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param pid the ID of the page to unlock
      */
-    public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+    public void releasePage(TransactionId tid, PageId pid) {
+        synchronized (this) {
+            HashMap<TransactionId, Integer> pins = pinCounts.get(pid);
+            if (pins != null) {
+                pins.remove(tid);
+                if (pins.isEmpty())
+                    pinCounts.remove(pid);
+            }
+        }
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -112,28 +330,94 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
+    }
+
+    /** @return the lock manager guarding this pool's pages */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction.  On commit the transaction's pages are forced to disk;
+     * on abort they are discarded, so they will be re-read from disk (pages
+     * are never written before commit, see {@link #evictPage}).
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, commit, true);
+    }
+
+    /**
+     * Commit or abort a given transaction, as above, but on commit leave
+     * the transaction's pages in the pool unless force is set.  Such pages
+     * are written once the log holds the commit, when the pool needs room
+     * or another transaction that changes them completes.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param force false to leave committed pages to be written later
+     * @see Transaction#setAsyncCommit
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean force)
+        throws IOException {
+        synchronized (this) {
+            if (snapshots.remove(tid) != null) {
+                versions.prune(oldestSnapshot());
+                unpinAll(tid);
+                return;
+            }
+            if (commit) {
+                if (force) {
+                    flushPages(tid);
+                } else {
+                    for (Page page : bufferPoolHashMap.values()) {
+                        if (tid.equals(page.isDirty())) {
+                            // snapshots taken before this commit still read the old image
+                            versions.save(tid, page.getId(), page.getBeforeImage());
+                            lazyPages.put(page.getId(), tid);
+                        }
+                    }
+                }
+                versions.commit(tid, ++commitSeq);
+                // (pages may be covered by a table lock, so ask per page)
+                for (Page page : bufferPoolHashMap.values()) {
+                    if (lockManager.holdsLock(tid, page.getId()))
+                        page.setBeforeImage();
+                }
+            } else {
+                Iterator<Page> it = bufferPoolHashMap.values().iterator();
+                while (it.hasNext()) {
+                    Page page = it.next();
+                    if (tid.equals(page.isDirty())) {
+                        it.remove();
+                        recLsns.remove(page.getId());
+                        lazyPages.remove(page.getId());
+                    }
+                }
+                versions.abort(tid);
+            }
+            versions.prune(oldestSnapshot());
+            unpinAll(tid);
+        }
+        lockManager.releaseAll(tid);
+    }
+
+    /* @return the oldest commitSeq a running snapshot reads as of; caller must hold this */
+    private long oldestSnapshot() {
+        long oldest = commitSeq;
+        for (long snapshot : snapshots.values())
+            oldest = Math.min(oldest, snapshot);
+        return oldest;
     }
 
     /**
@@ -146,6 +430,9 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * <p>
+     * The insert is logged as a compact INSERT record; see
+     * {@link LogFile#logInsert}.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -153,8 +440,14 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        ArrayList<Page> dirtied = file.insertTuple(tid, t);
+        // log and cache together, so a checkpoint's dirty page table
+        // covers every change logged before it began
+        synchronized (this) {
+            long lsn = Database.getLogFile().logInsert(tid, t);
+            cacheDirtyPages(tid, dirtied, lsn);
+        }
     }
 
     /**
@@ -166,14 +459,40 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have 
      * been dirtied to the cache (replacing any existing versions of those pages) so 
      * that future requests see up-to-date pages. 
+     * <p>
+     * The delete is logged as a compact DELETE record; see
+     * {@link LogFile#logDelete}.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        if (t.getRecordId() == null)
+            throw new DbException("tuple is not stored in any table");
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        ArrayList<Page> dirtied = file.deleteTuple(tid, t);
+        // log and cache together, so a checkpoint's dirty page table
+        // covers every change logged before it began
+        synchronized (this) {
+            long lsn = Database.getLogFile().logDelete(tid, t);
+            cacheDirtyPages(tid, dirtied, lsn);
+        }
+    }
+
+    /* mark pages dirtied by tid, as logged at lsn, and make them the cached versions */
+    private synchronized void cacheDirtyPages(TransactionId tid, ArrayList<Page> dirtied, long lsn)
+        throws DbException {
+        for (Page page : dirtied) {
+            page.markDirty(true, tid);
+            if (!recLsns.containsKey(page.getId()))
+                recLsns.put(page.getId(), lsn);
+            if (!bufferPoolHashMap.containsKey(page.getId())) {
+                while (bufferPoolHashMap.size() >= numPages)
+                    evictPage();
+            }
+            bufferPoolHashMap.put(page.getId(), page);
+        }
     }
 
     /**
@@ -182,9 +501,12 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (Page page : bufferPoolHashMap.values()) {
+            if (page.isDirty() != null)
+                dirtyPages.add(page);
+        }
+        writeSorted(dirtyPages);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -196,8 +518,18 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+        bufferPoolHashMap.remove(pid);
+        recLsns.remove(pid);
+        lazyPages.remove(pid);
+    }
+
+    /**
+     * @return the dirty page table: for each dirty page whose changes were
+     *   logged, the LSN of the first log record that may not be reflected
+     *   in the page on disk
+     */
+    public synchronized Map<PageId, Long> getDirtyPageTable() {
+        return new HashMap<PageId, Long>(recLsns);
     }
 
     /**
@@ -205,24 +537,129 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        Page page = bufferPoolHashMap.get(pid);
+        if (page == null || page.isDirty() == null)
+            return;
+        versions.save(page.isDirty(), pid, page.getBeforeImage());
+        Database.getLogFile().force(); // write ahead: the page's log records first
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        page.markDirty(false, null);
+        recLsns.remove(pid);
+        lazyPages.remove(pid);
     }
 
     /** Write all pages of the specified transaction to disk.
+        The pages are written in file order, adjacent pages are written
+        together, and each file is forced to disk once.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (Page page : bufferPoolHashMap.values()) {
+            if (tid.equals(page.isDirty()))
+                dirtyPages.add(page);
+        }
+        writeSorted(dirtyPages);
+    }
+
+    /**
+     * Write the pages committed asynchronously that are now dirtied by the
+     * specified transaction, or, if it is null, those not dirtied since
+     * they were committed.  The log is forced first, as for any write.
+     *
+     * @return true if any page was written
+     */
+    synchronized boolean flushLazyPages(TransactionId dirtier) throws IOException {
+        ArrayList<Page> dirtyPages = new ArrayList<Page>();
+        for (Map.Entry<PageId, TransactionId> entry : lazyPages.entrySet()) {
+            Page page = bufferPoolHashMap.get(entry.getKey());
+            if (page != null && page.isDirty() != null
+                && page.isDirty().equals(dirtier == null ? entry.getValue() : dirtier))
+                dirtyPages.add(page);
+        }
+        writeSorted(dirtyPages);
+        return !dirtyPages.isEmpty();
+    }
+
+    /**
+     * Write the specified dirty pages to disk sorted by (table, page number),
+     * handing each table's pages to its file in a single call, and mark them
+     * clean.
+     */
+    private synchronized void writeSorted(ArrayList<Page> dirtyPages) throws IOException {
+        if (dirtyPages.isEmpty())
+            return;
+        Database.getLogFile().force(); // write ahead: the pages' log records first
+
+        Collections.sort(dirtyPages, new Comparator<Page>() {
+            public int compare(Page p1, Page p2) {
+                PageId id1 = p1.getId(), id2 = p2.getId();
+                if (id1.getTableId() != id2.getTableId())
+                    return id1.getTableId() < id2.getTableId() ? -1 : 1;
+                return id1.pageNumber() - id2.pageNumber();
+            }
+        });
+
+        int start = 0;
+        while (start < dirtyPages.size()) {
+            int tableId = dirtyPages.get(start).getId().getTableId();
+            int end = start;
+            while (end < dirtyPages.size() && dirtyPages.get(end).getId().getTableId() == tableId)
+                end++;
+
+            List<Page> tablePages = dirtyPages.subList(start, end);
+            for (Page page : tablePages)
+                versions.save(page.isDirty(), page.getId(), page.getBeforeImage());
+            DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+            if (file instanceof HeapFile) {
+                ((HeapFile) file).writePages(tablePages);
+            } else {
+                for (Page page : tablePages)
+                    file.writePage(page);
+            }
+            for (Page page : tablePages) {
+                page.markDirty(false, null);
+                recLsns.remove(page.getId());
+                lazyPages.remove(page.getId());
+            }
+            start = end;
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean, unpinned pages are evicted: dirty pages stay in the pool
+     * until their transaction commits (NO STEAL), so an aborted transaction's
+     * changes never reach disk.  If every page is dirty, pages committed
+     * asynchronously are written to make room.
      */
     private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        PageId victim = chooseVictim();
+        if (victim == null) {
+            try {
+                if (flushLazyPages(null))
+                    victim = chooseVictim();
+            } catch (IOException e) {
+                throw new DbException("could not write committed pages: " + e.getMessage());
+            }
+        }
+        if (victim == null)
+            throw new DbException("all pages in the buffer pool are dirty or pinned");
+        bufferPoolHashMap.remove(victim);
+    }
+
+    /**
+     * @return the least recently used page that is neither dirty nor pinned,
+     *   or null if there is none
+     */
+    private synchronized PageId chooseVictim() {
+        // (iterate entries: a get() would reorder the map under us)
+        Iterator<Map.Entry<PageId, Page>> it = bufferPoolHashMap.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, Page> entry = it.next();
+            if (!pinCounts.containsKey(entry.getKey()) && entry.getValue().isDirty() == null)
+                return entry.getKey();
+        }
+        return null;
     }
 
 }
@@ -0,0 +1,84 @@
+package simpledb;
+
+/**
+ * BufferRing is a bulk-read access strategy for the BufferPool.  A
+ * sequential scan over a table that is large compared to the pool reads its
+ * pages through a small, private ring of frames: once the ring is full, each
+ * new page the scan brings in replaces the page the scan read longest ago,
+ * instead of pushing pages that other transactions are using out of the
+ * pool.  A large scan therefore only ever occupies {@link #size()} frames.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ * @see HeapFile.HeapFileIterator
+ */
+public class BufferRing {
+
+    /** Largest number of frames a single ring will use. */
+    public static final int MAX_RING_PAGES = 16;
+
+    /**
+     * Fraction of the buffer pool a table may occupy before a scan over it
+     * uses a ring.  Tables that fit comfortably in the pool are still cached
+     * normally.
+     */
+    private static double scanThreshold = 0.75;
+
+    private final PageId[] frames;
+    private int next = 0;
+
+    /**
+     * Creates an empty ring of the specified number of frames.
+     *
+     * @param size the number of frames in the ring; must be at least one
+     */
+    public BufferRing(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("ring must have at least one frame");
+        frames = new PageId[size];
+    }
+
+    /**
+     * Returns a ring sized for a sequential scan through a pool of the
+     * specified capacity, or null if a scan over a file of the specified
+     * number of pages should use the pool normally.
+     *
+     * @param filePages the number of pages in the file being scanned
+     * @param poolPages the capacity of the buffer pool, in pages
+     */
+    public static BufferRing forScan(int filePages, int poolPages) {
+        if (filePages <= poolPages * scanThreshold)
+            return null;
+        return new BufferRing(Math.max(1, Math.min(MAX_RING_PAGES, poolPages / 8)));
+    }
+
+    public static double getScanThreshold() {
+        return scanThreshold;
+    }
+
+    /**
+     * Set the fraction of the pool a table must exceed before scans over it
+     * use a ring.  A value of zero makes every scan use a ring.
+     */
+    public static void setScanThreshold(double fraction) {
+        BufferRing.scanThreshold = fraction;
+    }
+
+    /** @return the number of frames in this ring */
+    public int size() {
+        return frames.length;
+    }
+
+    /**
+     * @return the page that the next page read through this ring should
+     *   replace, or null if the ring still has a free frame
+     */
+    PageId victim() {
+        return frames[next];
+    }
+
+    /** Record that the specified page now occupies the next frame of the ring. */
+    void add(PageId pid) {
+        frames[next] = pid;
+        next = (next + 1) % frames.length;
+    }
+}
@@ -5,7 +5,7 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -21,6 +21,9 @@ public class Filter extends Operator {
     Predicate predicate;
     DbIterator child;
     
+    /* the predicate compiled for its operand's type, when opened */
+    private transient TupleMatcher matcher;
+    
     public Filter(Predicate p, DbIterator child) {
     	
     	// setting predicate and child
@@ -46,6 +49,7 @@ public class Filter extends Operator {
     	// try to open
     	super.open();
         child.open();
+        matcher = TupleMatcher.compile(predicate);
         
     }
 
@@ -82,7 +86,7 @@ public class Filter extends Operator {
     		
         	Tuple returnTuple = child.next();
     		
-    		if(predicate.filter(returnTuple)){
+    		if(matcher.matches(returnTuple)){
     			return returnTuple;
     		} 				
     	}
@@ -90,6 +94,26 @@ public class Filter extends Operator {
     	return null;
     }
 
+    /**
+     * Reads the child's batches, and returns each with the tuples that
+     * fail the predicate taken out of its selection vector.  Batches with
+     * no tuples left are skipped.
+     * 
+     * @return The next batch of tuples that pass the filter, or null if
+     *         there are no more tuples
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	
+    	TupleBatch batch;
+    	while((batch = TupleBatch.next(child)) != null){
+    		batch.filter(predicate.getField(), predicate.getOp(), predicate.getOperand());
+    		if(batch.size() > 0){
+    			return batch;
+    		}
+    	}
+    	return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
     	
@@ -0,0 +1,486 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin implements an equality join.  It reads one child, the inner
+ * one, once into a hash table keyed on its join field, then reads the
+ * other, outer, child once, looking each tuple up in the table.  Unlike
+ * {@link Join} it never rescans the inner child.  The inner child is the
+ * right one unless {@link #setBuildLeft} says otherwise; the smaller input
+ * should be inner.
+ * <p>
+ * The table is limited to a memory budget (see {@link #setMemoryBudget}).
+ * When the inner child outgrows it, the join becomes a hybrid hash join:
+ * tuples are split by a hash of their join field into FANOUT partitions,
+ * and partitions are written to spill files, one at a time, until the rest
+ * fit.  Outer tuples of the partitions still in memory are joined as they
+ * are read; the others are spilled to matching files.  Each pair of spilled
+ * partitions is then joined the same way, partitioned again with another
+ * hash if it still does not fit.  A partition that is still too big after
+ * MAX_LEVELS rounds, because many tuples share a key, is joined in chunks
+ * that fit the budget, reading its outer partition once per chunk.
+ * <p>
+ * The tuples returned are the same as Join's: the fields of the left tuple
+ * followed by those of the right one.  Their order is only Join's if the
+ * right child is inner and nothing was spilled.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the hash table, in bytes of heap. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+    /** Number of partitions an input that does not fit is split into. */
+    static final int FANOUT = 16;
+
+    /** Rounds of partitioning before a partition is joined in chunks. */
+    static final int MAX_LEVELS = 3;
+
+    private JoinPredicate jp;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private boolean buildLeft = false;
+
+    /* the child the table is built from and the one that probes it, and
+       their join fields, as chosen when the join was opened */
+    private transient DbIterator inner, outer;
+    private transient int innerField, outerField;
+
+    /* the table being probed, and where its probe tuples come from: the
+       outer child, or a spilled outer partition */
+    private transient Build build;
+    private transient Source probe;
+
+    /* spilled pairs of partitions not joined yet */
+    private transient ArrayDeque<Build> pending;
+
+    /* every spill file not yet deleted, and how many were created */
+    private transient ArrayList<SpillFile> spills;
+    private transient int spillCount;
+
+    /* the outer tuple being probed, and its matches not returned yet */
+    private transient Tuple outerTuple;
+    private transient Iterator<Tuple> matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must be EQUALS
+     * @param child1
+     *            Iterator for the left relation, which probes the table
+     *            unless it is built from it
+     * @param child2
+     *            Iterator for the right relation, which is hashed unless
+     *            the table is built from the left one
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("hash join needs an equality predicate");
+        jp = p;
+        this.child1 = child1;
+        this.child2 = child2;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return jp;
+    }
+
+    /**
+     * Set how much memory the hash table may take up before partitions
+     * are spilled to disk.  Takes effect the next time the join is opened.
+     *
+     * @param bytes the budget, in bytes of heap as estimated by
+     *   Tuple.heapSize for each tuple in the table
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 1)
+            throw new IllegalArgumentException("bad memory budget");
+        memoryBudget = bytes;
+    }
+
+    long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Set which child the hash table is built from: the left one if
+     * buildLeft is true, the right one otherwise.  Either way the tuples
+     * returned have the left tuple's fields first.  Takes effect the next
+     * time the join is opened.
+     */
+    public void setBuildLeft(boolean buildLeft) {
+        this.buildLeft = buildLeft;
+    }
+
+    /** @return true if the hash table is built from the left child */
+    public boolean isBuildLeft() {
+        return buildLeft;
+    }
+
+    /** @return the number of spill files this join has created since it was opened */
+    int getSpillCount() {
+        return spillCount;
+    }
+
+    /** @return the field name of join field1, quantified by alias or table name */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(jp.getField1());
+    }
+
+    /** @return the field name of join field2, quantified by alias or table name */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(jp.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        inner = buildLeft ? child1 : child2;
+        outer = buildLeft ? child2 : child1;
+        innerField = buildLeft ? jp.getField1() : jp.getField2();
+        outerField = buildLeft ? jp.getField2() : jp.getField1();
+        outer.open();
+        inner.open();
+        spillCount = 0;
+        start();
+    }
+
+    /* build the table from the inner child and start probing it */
+    private void start() throws DbException, TransactionAbortedException {
+        spills = new ArrayList<SpillFile>();
+        pending = new ArrayDeque<Build>();
+        build = new Build(0, null, null);
+        build.load(new ChildSource(inner));
+        probe = new ChildSource(outer);
+        outerTuple = null;
+        matches = null;
+    }
+
+    /* drop the table and delete the spill files */
+    private void discard() {
+        if (spills != null) {
+            for (SpillFile spill : spills)
+                spill.delete();
+        }
+        spills = null;
+        pending = null;
+        build = null;
+        probe = null;
+        outerTuple = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        discard();
+        child1.close();
+        child2.close();
+    }
+
+    /**
+     * Start over.  If nothing was spilled the table is kept, and only the
+     * outer child is read again; otherwise the join starts from scratch.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (build != null && build.level == 0 && !build.spilled() && pending.isEmpty()) {
+            outer.rewind();
+            probe = new ChildSource(outer);
+            outerTuple = null;
+            matches = null;
+            return;
+        }
+        discard();
+        outer.rewind();
+        inner.rewind();
+        start();
+    }
+
+    /**
+     * Returns the next pair of tuples whose join fields are equal, merged
+     * into one, or null if there are no more.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || !matches.hasNext()) {
+            matches = null;
+            Tuple t = probe.next();
+            if (t == null) {
+                if (!nextRound())
+                    return null;
+                continue;
+            }
+            ArrayList<Tuple> bucket = build.probe(t);
+            if (bucket != null) {
+                outerTuple = t;
+                matches = bucket.iterator();
+            }
+        }
+        if (buildLeft)
+            return Tuple.merge(getTupleDesc(), matches.next(), outerTuple);
+        return Tuple.merge(getTupleDesc(), outerTuple, matches.next());
+    }
+
+    /*
+     * The probe input is used up: load the next chunk of the table, or
+     * the next pair of spilled partitions.
+     * @return false if there is nothing left to join
+     */
+    private boolean nextRound() throws DbException, TransactionAbortedException {
+        if (build.loadChunk()) {
+            probe = build.probeFile();
+            return true;
+        }
+        build.finish();
+        while (!pending.isEmpty()) {
+            build = pending.pop();
+            build.load(new SpillSource(build.innerFile));
+            if (build.isEmpty() && !build.spilled()) {
+                build.finish();
+                continue;
+            }
+            probe = build.probeFile();
+            return true;
+        }
+        return false;
+    }
+
+    /* @return the partition of a join field at a partitioning level */
+    private static int partition(Field key, int level) {
+        // a different hash for each level, so a partition splits again
+        int h = key.hashCode() + level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % FANOUT;
+    }
+
+    private SpillFile newSpill() throws DbException {
+        SpillFile spill = new SpillFile();
+        spills.add(spill);
+        spillCount++;
+        return spill;
+    }
+
+    private void delete(SpillFile spill) {
+        if (spill != null) {
+            spill.delete();
+            spills.remove(spill);
+        }
+    }
+
+    /* tuples read in order, null at the end */
+    private interface Source {
+        Tuple next() throws DbException, TransactionAbortedException;
+    }
+
+    private static class ChildSource implements Source {
+        private final DbIterator child;
+
+        ChildSource(DbIterator child) {
+            this.child = child;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+    }
+
+    private static class SpillSource implements Source {
+        private final SpillFile file;
+
+        SpillSource(SpillFile file) throws DbException {
+            this.file = file;
+            file.rewind();
+        }
+
+        public Tuple next() throws DbException {
+            return file.next();
+        }
+    }
+
+    /*
+     * The hash table over one input at one partitioning level: the whole
+     * inner child, or a spilled inner partition.  Partitions that do not
+     * fit are spilled, along with the outer tuples that belong to them.
+     */
+    private class Build {
+        final int level;
+        final SpillFile innerFile, outerFile;
+
+        final HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+        long bytes = 0;
+
+        /* spill files of the spilled partitions, null until one is */
+        SpillFile[] innerSpills, outerSpills;
+
+        /* past MAX_LEVELS: the part of the input not loaded yet */
+        Source rest;
+        Tuple restFirst;
+
+        Build(int level, SpillFile innerFile, SpillFile outerFile) {
+            this.level = level;
+            this.innerFile = innerFile;
+            this.outerFile = outerFile;
+        }
+
+        boolean spilled() {
+            return innerSpills != null;
+        }
+
+        boolean isEmpty() {
+            return table.isEmpty();
+        }
+
+        void load(Source in) throws DbException, TransactionAbortedException {
+            if (level >= MAX_LEVELS) {
+                // too skewed to split further: join a chunk at a time
+                rest = in;
+                restFirst = in.next();
+                loadChunk();
+                return;
+            }
+            Tuple t;
+            while ((t = in.next()) != null) {
+                int p = partition(t.getField(innerField), level);
+                if (innerSpills != null && innerSpills[p] != null) {
+                    innerSpills[p].write(t);
+                    continue;
+                }
+                add(t);
+                while (bytes > memoryBudget && spillPartition())
+                    ;
+            }
+        }
+
+        /*
+         * Replace the table with the next chunk of the input, when joining
+         * in chunks.
+         * @return false if the input is used up
+         */
+        boolean loadChunk() throws DbException, TransactionAbortedException {
+            if (rest == null)
+                return false;
+            table.clear();
+            bytes = 0;
+            if (restFirst == null) {
+                rest = null;
+                return false;
+            }
+            // always take one tuple, even if it alone is over the budget
+            do {
+                add(restFirst);
+                restFirst = rest.next();
+            } while (restFirst != null && bytes < memoryBudget);
+            return true;
+        }
+
+        private void add(Tuple t) {
+            Field key = t.getField(innerField);
+            ArrayList<Tuple> bucket = table.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<Tuple>(1);
+                table.put(key, bucket);
+            }
+            bucket.add(t);
+            bytes += t.heapSize();
+        }
+
+        /*
+         * Move the highest numbered partition still in memory to disk.
+         * @return false if none is left
+         */
+        private boolean spillPartition() throws DbException {
+            if (innerSpills == null) {
+                innerSpills = new SpillFile[FANOUT];
+                outerSpills = new SpillFile[FANOUT];
+            }
+            int p = FANOUT - 1;
+            while (p >= 0 && innerSpills[p] != null)
+                p--;
+            if (p < 0)
+                return false;
+            innerSpills[p] = newSpill();
+            Iterator<Map.Entry<Field, ArrayList<Tuple>>> it = table.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Field, ArrayList<Tuple>> entry = it.next();
+                if (partition(entry.getKey(), level) != p)
+                    continue;
+                for (Tuple t : entry.getValue()) {
+                    innerSpills[p].write(t);
+                    bytes -= t.heapSize();
+                }
+                it.remove();
+            }
+            return true;
+        }
+
+        /* @return the tuples t joins with now, or null if none or if t was spilled */
+        ArrayList<Tuple> probe(Tuple t) throws DbException {
+            Field key = t.getField(outerField);
+            if (innerSpills != null) {
+                int p = partition(key, level);
+                if (innerSpills[p] != null) {
+                    if (innerSpills[p].size() == 0)
+                        return null;
+                    if (outerSpills[p] == null)
+                        outerSpills[p] = newSpill();
+                    outerSpills[p].write(t);
+                    return null;
+                }
+            }
+            return table.get(key);
+        }
+
+        /* @return a source of this build's probe tuples, from the start */
+        Source probeFile() throws DbException {
+            return new SpillSource(outerFile);
+        }
+
+        /* queue the spilled partitions that have tuples on both sides, and
+           delete the rest */
+        void finish() {
+            // a whole table is kept for rewind to probe again
+            if (level > 0 || spilled())
+                table.clear();
+            delete(innerFile);
+            delete(outerFile);
+            if (innerSpills == null)
+                return;
+            for (int p = 0; p < FANOUT; p++) {
+                if (innerSpills[p] != null && outerSpills[p] != null)
+                    pending.push(new Build(level + 1, innerSpills[p], outerSpills[p]));
+                else {
+                    delete(innerSpills[p]);
+                    delete(outerSpills[p]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = null;
+    }
+
+}
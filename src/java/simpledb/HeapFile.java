@@ -1,6 +1,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -18,6 +20,9 @@ public class HeapFile implements DbFile {
 	private File heapFileFile;
 	private int heapID;
 	private TupleDesc heapTD;
+	
+	/* held while adding a page to the end of the file */
+	private final Object growLatch = new Object();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -122,6 +127,49 @@ public class HeapFile implements DbFile {
     
     
     
+    /**
+     * Push the specified pages of this file to disk and force the file once.
+     * Each run of consecutive page numbers is written with a single gathering
+     * write, rather than a separate open/seek/write per page.
+     * 
+     * @param pages
+     *            pages of this file, sorted by page number
+     * @throws IOException
+     *             if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException {
+    	
+    	int pageSize = BufferPool.getPageSize();
+    	RandomAccessFile randomFile = new RandomAccessFile(heapFileFile, "rw");
+    	try {
+    		FileChannel channel = randomFile.getChannel();
+    		int runStart = 0;
+    		while (runStart < pages.size()) {
+    			
+    			//find the end of this run of adjacent pages
+    			int runEnd = runStart + 1;
+    			while (runEnd < pages.size()
+    					&& pages.get(runEnd).getId().pageNumber() == pages.get(runEnd - 1).getId().pageNumber() + 1)
+    				runEnd++;
+    			
+    			ByteBuffer[] run = new ByteBuffer[runEnd - runStart];
+    			for (int i = 0; i < run.length; i++)
+    				run[i] = ByteBuffer.wrap(pages.get(runStart + i).getPageData(), 0, pageSize);
+    			
+    			//writing the whole run at the first page's offset
+    			channel.position((long) pageSize * pages.get(runStart).getId().pageNumber());
+    			long remaining = (long) pageSize * run.length;
+    			while (remaining > 0)
+    				remaining -= channel.write(run);
+    			
+    			runStart = runEnd;
+    		}
+    		channel.force(false);
+    	} finally {
+    		randomFile.close();
+    	}
+    }
+    
     /**
      * Returns the number of pages in this HeapFile.
      */
@@ -140,16 +188,61 @@ public class HeapFile implements DbFile {
         
     	//list to return
     	ArrayList<Page> insertList = new ArrayList<Page>();
+    	BufferPool bufferPool = Database.getBufferPool();
+    	
+    	//look for a page with room, only keeping locks on pages we write
+    	int start = 0;
+    	while(true){
+    		int pages = numPages();
+    		for(int i = start; i < pages; i++){
+    			HeapPageId pid = new HeapPageId(getId(), i);
+    			//a lock we held before looking must be kept until we complete
+    			boolean held = bufferPool.getLockManager().getLockMode(tid, pid) != null;
+    			HeapPage page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_ONLY);
+    			if(page.getNumEmptySlots() == 0){
+    				if(held){
+    					bufferPool.unpinPage(tid, pid);
+    				} else {
+    					bufferPool.releasePage(tid, pid);
+    				}
+    				continue;
+    			}
+    			page = (HeapPage) bufferPool.getPage(tid, pid, Permissions.READ_WRITE);
+    			page.insertTuple(t);
+    			bufferPool.unpinPage(tid, pid);
+    			bufferPool.unpinPage(tid, pid);
+    			insertList.add(page);
+    			return insertList;
+    		}
     	
-    	return null;
+    		//every page is full, so add an empty one to the end of the file,
+    		//unless another transaction already has: then look at its page
+    		synchronized(growLatch){
+    			if(numPages() == pages){
+    				HeapPageId pid = new HeapPageId(getId(), pages);
+    				writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+    			}
+    		}
+    		start = pages;
+    	}
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         
+    	PageId pid = t.getRecordId().getPageId();
+    	if(pid.getTableId() != getId()){
+    		throw new DbException("tuple is not a member of this file");
+    	}
+    	
+    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+    	page.deleteTuple(t);
+    	Database.getBufferPool().unpinPage(tid, pid);
     	
-        return null;
+    	ArrayList<Page> deleteList = new ArrayList<Page>();
+    	deleteList.add(page);
+        return deleteList;
     }
     
     
@@ -171,21 +264,43 @@ public class HeapFileIterator implements DbFileIterator {
         
         private Iterator<Tuple> pageTupleIterator;
         private int pgNo;
+        /* private frames for scans of large files, null for small ones */
+        private BufferRing ring;
+        /* the page pageTupleIterator is reading, pinned until we move on */
+        private PageId pinnedPageId;
+        
+        /* note that the page stays pinned until the caller unpins it */
         private Iterator<Tuple> getTupleIterator(int pgNumber) throws TransactionAbortedException, DbException{
             
             PageId pageId = new HeapPageId(heapFile.getId(), pgNumber);
-            Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+            Page page = Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY, ring);
             HeapPage heapPage = (HeapPage)page;
             Iterator<Tuple> tuplesIterator = heapPage.iterator();
             return  tuplesIterator;
             
         }
         
+        private void moveToPage(int pgNumber) throws TransactionAbortedException, DbException{
+            Iterator<Tuple> tuplesIterator = getTupleIterator(pgNumber);
+            unpinCurrentPage();
+            pgNo = pgNumber;
+            pinnedPageId = new HeapPageId(heapFile.getId(), pgNumber);
+            pageTupleIterator = tuplesIterator;
+        }
+        
+        private void unpinCurrentPage(){
+            if(pinnedPageId != null){
+                Database.getBufferPool().unpinPage(tid, pinnedPageId);
+                pinnedPageId = null;
+            }
+        }
+        
         @Override
         public void open() throws DbException, TransactionAbortedException{
         	//set the page to zero and get the first iterator
             pgNo = 0;
-            pageTupleIterator = getTupleIterator(pgNo);
+            ring = BufferRing.forScan(heapFile.numPages(), Database.getBufferPool().getNumPages());
+            moveToPage(pgNo);
         }
 
         @Override
@@ -199,10 +314,11 @@ public class HeapFileIterator implements DbFileIterator {
             if(pageTupleIterator.hasNext()){
                 return true;
             } else if (pgNo < heapFile.numPages()-1){
+            	//peek at the next page without keeping it pinned
             	Iterator<Tuple> tIterator = getTupleIterator(pgNo + 1);
-            	if(tIterator.hasNext()){
-                    return true;
-                } 
+            	boolean nextPageHasTuples = tIterator.hasNext();
+            	Database.getBufferPool().unpinPage(tid, new HeapPageId(heapFile.getId(), pgNo + 1));
+            	return nextPageHasTuples;
             } 
             
             return false;
@@ -222,7 +338,7 @@ public class HeapFileIterator implements DbFileIterator {
                 	tupleReturn = pageTupleIterator.next();
                 	return tupleReturn;
             	} else if(pgNo < heapFile.numPages()-1) {
-                	pageTupleIterator = getTupleIterator(++pgNo);
+                	moveToPage(pgNo + 1);
                 	if(pageTupleIterator.hasNext()){
                 	tupleReturn = pageTupleIterator.next();
                 	return tupleReturn;
@@ -245,6 +361,7 @@ public class HeapFileIterator implements DbFileIterator {
         @Override
         public void close() {
         	pageTupleIterator = null;
+        	unpinCurrentPage();
 
         }
 } 
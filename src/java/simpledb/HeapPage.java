@@ -272,7 +272,7 @@ public class HeapPage implements Page {
     	RecordId tupleRecordId = t.getRecordId();
     	PageId tuplePageId = tupleRecordId.getPageId();
     	
-    	if(this.pid != tuplePageId){
+    	if(!this.pid.equals(tuplePageId)){
             //throw exception if it is not on the page
     		throw new DbException("tuple not on page could not delete");
     	}
@@ -280,7 +280,7 @@ public class HeapPage implements Page {
     	//get the tuple number
     	int tupleNo = tupleRecordId.tupleno();
     	
-    	if(isSlotUsed(tupleNo)){
+    	if(!isSlotUsed(tupleNo)){
         //or if the slot is already empty
     		throw new DbException("tuple is already empty");
     	}
@@ -306,46 +306,68 @@ public class HeapPage implements Page {
         	throw new DbException("page is full");
         }
     	
-    	//create an iterator
-    	Iterator<Tuple> tupleIterator = this.iterator();
-    	
-    	//setting it to an insane value
-    	int tupleIteratorNo = -1;
+    	if(!t.getTupleDesc().equals(td)){
+    		// if there is a mismatch then no go
+    		throw new DbException("tuple mismatch");
+    	}
     	
-    	//keep going until we find an empty one
-    	while(tupleIterator.hasNext()){
-    		
-    		tupleIteratorNo = tupleIterator.next().getRecordId().tupleno();
-    		
-    		if(isSlotUsed(tupleIteratorNo)){
-    		
-    			if(t.getTupleDesc().equals(tuples[tupleIteratorNo].getTupleDesc())){
-        		
-    				break;
-        		
-        		//else{
-    			// if there is a mismatch then no go
-        		//throw new DbException("tuple mismatch");   
-        		//}
-        		
-        		}else{
-        			
-        			// if there is a mismatch then no go
-            		throw new DbException("tuple mismatch"); 
-        		}
+    	//take the first empty slot
+    	for(int i = 0; i < numSlots; i++){
+    		if(!isSlotUsed(i)){
+    			markSlotUsed(i,true);
+    			t.setRecordId(new RecordId(pid, i));
+    			tuples[i] = t;
+    			return;
     		}
-    		
     	}
     	
-    	//if we found a vaule change the tuple
-    	if(tupleIteratorNo != -1){
-    		markSlotUsed(tupleIteratorNo,true);
-    		tuples[tupleIteratorNo] = t;
-    	}else{
-    		//if page is full	
-        	throw new DbException("page is full");
+    }
+
+    /**
+     * Put a tuple into the specified slot, replacing whatever is there.
+     * Used to redo an insert or undo a delete from the log.
+     * @param slot the slot to fill
+     * @param data the tuple's fields, serialized as on the page
+     * @return false if the slot already held exactly this tuple
+     */
+    boolean restoreTuple(int slot, byte[] data) throws IOException {
+    	
+    	DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+    	Tuple t = new Tuple(td);
+    	t.setRecordId(new RecordId(pid, slot));
+    	try {
+    		for (int j = 0; j < td.numFields(); j++) {
+    			t.setField(j, td.getFieldType(j).parse(dis));
+    		}
+    	} catch (java.text.ParseException e) {
+    		throw new IOException("could not parse logged tuple");
     	}
     	
+    	//nothing to do if it is already there
+    	if (isSlotUsed(slot)) {
+    		boolean same = true;
+    		for (int j = 0; j < td.numFields(); j++) {
+    			same &= t.getField(j).equals(tuples[slot].getField(j));
+    		}
+    		if (same)
+    			return false;
+    	}
+    	markSlotUsed(slot, true);
+    	tuples[slot] = t;
+    	return true;
+    }
+
+    /**
+     * Empty the specified slot.
+     * Used to redo a delete or undo an insert from the log.
+     * @return false if the slot was already empty
+     */
+    boolean clearSlot(int slot) {
+    	if (!isSlotUsed(slot))
+    		return false;
+    	markSlotUsed(slot, false);
+    	tuples[slot] = null;
+    	return true;
     }
 
     /**
@@ -3,9 +3,13 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation.  It is a
+ * block nested-loop join: it reads the left (outer) child a block of
+ * tuples at a time, and joins each block to one scan of the right (inner)
+ * child, so the inner child is scanned once per block rather than once
+ * per outer tuple.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -23,13 +27,51 @@ public class Join extends Operator {
     private JoinPredicate jp;
     private DbIterator fchild;
     private DbIterator schild;
-    private static Tuple currentTuple;
+    private TupleDesc td;
+
+    /** Default number of outer tuples joined per scan of the inner child. */
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    /* the block of outer tuples being joined, the inner tuple being
+       joined to it, and the next outer tuple of the block to try */
+    private transient ArrayList<Tuple> block;
+    private transient Tuple schildTuple;
+    private transient int blockPos;
+
+    /* false until the inner child has been scanned, so the first block
+       does not need to rewind it */
+    private transient boolean schildUsed = false;
+
+    /* the join predicate compiled for the join fields' type, when opened */
+    private transient TupleMatcher.Pair matcher;
+
+    /* the same for nextBatch, a batch at a time: the block of outer
+       tuples, the inner batch and the row of it being joined, and the
+       outer batch read last, which may not have all fit in the block */
+    private transient TupleBatch batchBlock, schildBatch, fchildBatch;
+    private transient int schildPos, fchildPos;
+
+    /* the batch nextBatch returns, refilled by each call */
+    private transient TupleBatch out;
     
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         jp = p;
         fchild = child1;
         schild = child2;
-        currentTuple = null;
+    }
+
+    /**
+     * Set how many outer tuples are kept in memory and joined per scan of
+     * the inner child.  A block size of 1 is a tuple-at-a-time nested loop.
+     * Takes effect from the next block of outer tuples read.
+     *
+     * @param tuples the number of outer tuples per block
+     */
+    public void setBlockSize(int tuples) {
+        if (tuples < 1)
+            throw new IllegalArgumentException("block size must be at least 1");
+        blockSize = tuples;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -65,10 +107,11 @@ public class Join extends Operator {
     public TupleDesc getTupleDesc() {
     	
 
-    	//calling the static merge method
-        TupleDesc returnTD = TupleDesc.merge(fchild.getTupleDesc(), schild.getTupleDesc());
-        
-        return returnTD;
+    	//calling the static merge method, once
+        if(td == null){
+        	td = TupleDesc.merge(fchild.getTupleDesc(), schild.getTupleDesc());
+        }
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -76,6 +119,11 @@ public class Join extends Operator {
         super.open();
         fchild.open();
         schild.open();
+        matcher = TupleMatcher.Pair.compile(jp, fchild.getTupleDesc().getFieldType(jp.getField1()));
+        block = new ArrayList<Tuple>();
+        schildTuple = null;
+        schildUsed = false;
+        batchBlock = schildBatch = fchildBatch = null;
     }
 
     public void close() {
@@ -89,7 +137,10 @@ public class Join extends Operator {
     	
     	 fchild.rewind();
          schild.rewind();
-         currentTuple = null;
+         block.clear();
+         schildTuple = null;
+         schildUsed = false;
+         batchBlock = schildBatch = fchildBatch = null;
     }
     
 
@@ -112,54 +163,120 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     
-    boolean nested = true;
-    Tuple fchildTuple;
-    
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 		
-    	//initialize the new tuple
-	    Tuple returnTuple = new Tuple(this.getTupleDesc());
+    	while(true){
+    		
+    		//try the rest of the block against the current inner tuple
+    		if(schildTuple != null){
+    			while(blockPos < block.size()){
+    				Tuple fchildTuple = block.get(blockPos++);
+    				if(matcher.matches(fchildTuple, schildTuple)){
+    					return Tuple.merge(this.getTupleDesc(), fchildTuple, schildTuple);
+    				}
+    			}
+    			schildTuple = null;
+    		}
+    		
+    		//next inner tuple for this block
+    		if(!block.isEmpty() && schild.hasNext()){
+    			schildTuple = schild.next();
+    			blockPos = 0;
+    			continue;
+    		}
+    		
+    		//the block has seen the whole inner child: read the next block
+    		block.clear();
+    		while(block.size() < blockSize && fchild.hasNext()){
+    			block.add(fchild.next());
+    		}
+    		if(block.isEmpty()){
+    			return null;
+    		}
+    		
+    		//rewinding
+    		if(schildUsed){
+    			schild.rewind();
+    		}
+    		schildUsed = true;
+    	}
+    }
+
+    /**
+     * Returns the next batch of tuples generated by the join, the same
+     * tuples fetchNext returns.  The loops are fetchNext's, over batches:
+     * each block of outer tuples is joined to the inner child's batches,
+     * comparing the join fields' values in the batches' columns.  The
+     * same batch is refilled by each call.
+     * 
+     * @return The next batch of matching tuples, or null if there are no more
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	
+    	if(out == null){
+    		out = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+    	} else {
+    		out.clear();
+    	}
+    	Predicate.Op op = jp.getOperator();
+    	int f1 = jp.getField1();
+    	int f2 = jp.getField2();
+    	if(batchBlock == null){
+    		batchBlock = new TupleBatch(fchild.getTupleDesc(), blockSize);
+    	}
     	
-    	//while there are tuples to check that satisfy
-    	while(fchild.hasNext()){
+    	while(!out.isFull()){
     		
-    		if(nested){
-    			fchildTuple = fchild.next();
-    			nested = false;
+    		//try the rest of the block against the current inner row
+    		if(schildBatch != null && schildPos < schildBatch.size()){
+    			int srow = schildBatch.row(schildPos);
+    			while(blockPos < batchBlock.size() && !out.isFull()){
+    				int frow = batchBlock.row(blockPos++);
+    				if(TupleBatch.compare(op, batchBlock, f1, frow, schildBatch, f2, srow)){
+    					out.addJoined(batchBlock, frow, schildBatch, srow);
+    				}
+    			}
+    			if(blockPos >= batchBlock.size()){
+    				schildPos++;
+    				blockPos = 0;
+    			}
+    			continue;
+    		}
+    		
+    		//next inner batch for this block
+    		if(batchBlock.size() > 0 && (schildBatch = TupleBatch.next(schild)) != null){
+    			schildPos = 0;
+    			blockPos = 0;
+    			continue;
     		}
     		
-    			while(schild.hasNext()){
-    				
-    				Tuple schildTuple = schild.next();
-
-    				if(jp.filter(fchildTuple, schildTuple)){
-    					
-    					//index of the tuple field we are on
-    					int ti = 0;
-    			
-    					//create the iterators so we can make the new tuple
-    					Iterator<Field> fiterator = fchildTuple.fields();
-    					Iterator<Field> siterator = schildTuple.fields();
-    					
-            	
-    					//add in all the fields using the two iterators
-    					while(fiterator.hasNext()){
-    						returnTuple.setField(ti, fiterator.next());
-    						ti++;
-    					}
-    					while(siterator.hasNext()){
-    						returnTuple.setField(ti, siterator.next());
-    						ti++;
-    					}
-    	    			return returnTuple;
+    		//the block has seen the whole inner child: read the next block,
+    		//of the block size set now
+    		if(batchBlock.capacity() != blockSize){
+    			batchBlock = new TupleBatch(fchild.getTupleDesc(), blockSize);
+    		}
+    		batchBlock.clear();
+    		while(!batchBlock.isFull()){
+    			if(fchildBatch == null || fchildPos >= fchildBatch.size()){
+    				fchildBatch = TupleBatch.next(fchild);
+    				fchildPos = 0;
+    				if(fchildBatch == null){
+    					break;
     				}
     			}
-    			
-				//rewinding
-    			nested = true;
-	    		schild.rewind();    			
+    			batchBlock.add(fchildBatch, fchildBatch.row(fchildPos++));
+    		}
+    		if(batchBlock.size() == 0){
+    			break;
+    		}
+    		
+    		//rewinding
+    		if(schildUsed){
+    			schild.rewind();
+    		}
+    		schildUsed = true;
     	}
-    		return null;
+    	return out.size() == 0 ? null : out;
     }
 
     @Override
@@ -172,6 +289,8 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
     	fchild = children[0];
     	schild = children[1];
+    	td = null;
+    	out = null;
     }
 
 }
@@ -14,6 +14,12 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** Cost of adding a tuple to a hash join's table, relative to probing it. */
+    static final double HASH_BUILD_COST = 2.0;
+
+    /** Assumed fraction of pairs of tuples an inequality join returns. */
+    static final double RANGE_SELECTIVITY = 0.3;
+
     /**
      * Constructor
      * 
@@ -44,6 +50,22 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, 0, 0);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as above,
+     * using estimates of the cardinalities of the subplans to choose which
+     * of them a hash join builds its table from.
+     * 
+     * @param card1
+     *            Estimated cardinality of plan1
+     * @param card2
+     *            Estimated cardinality of plan2
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,7 +90,18 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        // equality joins hash the smaller child instead of rescanning it,
+        // unless both children are sorted on the join fields already;
+        // inequality joins sort and merge them
+        if (lj.p == Predicate.Op.EQUALS && !(SortMergeJoin.isSortedOn(plan1, t1id)
+                                            && SortMergeJoin.isSortedOn(plan2, t2id))) {
+            HashJoin hj = new HashJoin(p, plan1, plan2);
+            hj.setBuildLeft(card1 < card2);
+            j = hj;
+        } else if (SortMergeJoin.supports(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p, plan1, plan2);
 
         return j;
 
@@ -107,11 +140,21 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 5.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            if (j.p == Predicate.Op.EQUALS) {
+                // HashJoin: scan each side once, hash the smaller side and
+                // probe with the other; building costs more than probing
+                return cost1 + cost2 + HASH_BUILD_COST * Math.min(card1, card2)
+                    + Math.max(card1, card2);
+            }
+            if (SortMergeJoin.supports(j.p)) {
+                // SortMergeJoin: sort both sides, then pay only for the
+                // pairs that join
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                    + card1 + card2 + RANGE_SELECTIVITY * card1 * card2;
+            }
+            // Join: scan the right side again for every block of left tuples
+            double blocks = Math.ceil((double) card1 / Join.DEFAULT_BLOCK_SIZE);
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
@@ -147,6 +190,11 @@ public class JoinOptimizer {
         }
     }
 
+    /* @return the number of comparisons to sort card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the join cardinality of two tables.
      * */
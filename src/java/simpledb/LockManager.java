@@ -0,0 +1,579 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager implements strict two-phase, multi-granularity locking for
+ * the BufferPool.  Locks are taken on a hierarchy of resources: tables,
+ * pages of a table, and tuples (RecordIds) of a page.  Before a page or
+ * tuple is locked, its ancestors are locked in the matching intention
+ * mode (IS to read, IX to write), so a transaction can lock a whole table
+ * in one step and still see conflicts with finer grained locks taken
+ * underneath it.  Locks are held until the transaction completes.
+ * <p>
+ * Once a transaction holds more than {@link #getEscalationThreshold()}
+ * page locks on one table, they are escalated: the transaction takes a
+ * single S (or X, if it has written to the table) lock on the table and
+ * drops its page and tuple locks there.  Large scans therefore hold a
+ * handful of locks instead of one per page.
+ * <p>
+ * The lock table is split into stripes, each guarded by its own monitor,
+ * so that requests for unrelated resources do not contend with one another.
+ * <p>
+ * Deadlocks are handled according to a {@link DeadlockPolicy}.  By default
+ * a transaction that has to wait records the transactions it is waiting
+ * for in a wait-for graph.  If adding those edges closes a cycle, the
+ * requesting transaction is chosen as the victim and aborted with a
+ * TransactionAbortedException, instead of waiting for a timeout.  The
+ * timestamp based policies avoid deadlocks altogether by only letting
+ * transactions wait for younger ones (or only older ones), using the
+ * order in which TransactionIds are issued as transaction age.
+ * <p>
+ * The lock manager counts the transactions it aborts, the requests that
+ * had to wait and the total time they waited, so policies can be compared
+ * on a workload.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** The modes in which a resource can be locked. */
+    public enum LockMode {
+        INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED, SHARED_INTENTION_EXCLUSIVE, EXCLUSIVE;
+
+        private static final boolean[][] COMPATIBLE = {
+            //               IS     IX     S      SIX    X
+            /* IS  */ { true,  true,  true,  true,  false },
+            /* IX  */ { true,  true,  false, false, false },
+            /* S   */ { true,  false, true,  false, false },
+            /* SIX */ { true,  false, false, false, false },
+            /* X   */ { false, false, false, false, false },
+        };
+
+        /** @return true if a lock in this mode can be held alongside one in the other mode */
+        public boolean compatibleWith(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return true if holding this mode grants everything the other mode does */
+        public boolean covers(LockMode other) {
+            switch (this) {
+            case EXCLUSIVE:
+                return true;
+            case SHARED_INTENTION_EXCLUSIVE:
+                return other != EXCLUSIVE;
+            case SHARED:
+            case INTENTION_EXCLUSIVE:
+                return other == this || other == INTENTION_SHARED;
+            default:
+                return other == INTENTION_SHARED;
+            }
+        }
+
+        /** @return the weakest mode that covers both this mode and the other */
+        public LockMode join(LockMode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            // only S and IX are incomparable
+            return SHARED_INTENTION_EXCLUSIVE;
+        }
+
+        /** @return the intention mode to hold on the parents of a resource locked in this mode */
+        LockMode intention() {
+            return this == SHARED || this == INTENTION_SHARED
+                ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
+        }
+    }
+
+    /** How lock conflicts that could deadlock are resolved. */
+    public enum DeadlockPolicy {
+        /** Wait, aborting the requester if waiting would close a cycle. */
+        DETECT,
+        /** An older requester waits; a younger one aborts ("dies"). */
+        WAIT_DIE,
+        /** An older requester aborts ("wounds") the younger holders; a younger one waits. */
+        WOUND_WAIT
+    }
+
+    /** Default for {@link #setEscalationThreshold}. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 256;
+
+    private static final int NUM_STRIPES = 64;
+
+    /** How long a waiting request sleeps before re-checking its lock. */
+    private static final long WAIT_MILLIS = 10;
+
+    /** The lockable resource standing for a whole table. */
+    private static final class TableResource {
+        final int tableId;
+
+        TableResource(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableResource && ((TableResource) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return tableId * 0x9e3779b9;
+        }
+    }
+
+    /** The holders of the lock on a single resource. */
+    private static class Lock {
+        final HashMap<TransactionId, LockMode> holders = new HashMap<TransactionId, LockMode>();
+    }
+
+    /** One stripe of the lock table; its monitor guards its locks. */
+    private static class Stripe {
+        final HashMap<Object, Lock> locks = new HashMap<Object, Lock>();
+    }
+
+    /** The locks one transaction holds; its monitor guards its fields. */
+    private static class Held {
+        final HashSet<Object> resources = new HashSet<Object>();
+        /* number of page locks held, per table id */
+        final HashMap<Integer, Integer> pageCounts = new HashMap<Integer, Integer>();
+    }
+
+    private final Stripe[] stripes;
+
+    private final ConcurrentHashMap<TransactionId, Held> locksHeld;
+
+    /* wait-for graph: edges from a waiting transaction to the holders
+       blocking it.  Each value is replaced, never modified in place. */
+    private final ConcurrentHashMap<TransactionId, Set<TransactionId>> waitsFor;
+
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    private volatile DeadlockPolicy policy = DeadlockPolicy.DETECT;
+
+    /* transactions wounded by older ones, to abort at their next lock request */
+    private final Set<TransactionId> wounded =
+        Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+
+    private final AtomicLong aborts = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    public LockManager() {
+        stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            stripes[i] = new Stripe();
+        locksHeld = new ConcurrentHashMap<TransactionId, Held>();
+        waitsFor = new ConcurrentHashMap<TransactionId, Set<TransactionId>>();
+    }
+
+    /** @return the number of page locks on a table a transaction may hold before they are escalated */
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    /**
+     * Set the number of page locks on one table a transaction may hold
+     * before they are replaced by a single table lock.
+     */
+    public void setEscalationThreshold(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        escalationThreshold = pages;
+    }
+
+    /** @return the policy used to resolve lock conflicts */
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Set the policy used to resolve lock conflicts.  Changing it while
+     * transactions are waiting only affects their next conflict.
+     */
+    public void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.policy = policy;
+    }
+
+    /** @return the number of transactions aborted to resolve lock conflicts */
+    public long getAbortCount() {
+        return aborts.get();
+    }
+
+    /** @return the number of lock requests that had to wait */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /** @return the total time lock requests spent waiting, in milliseconds */
+    public long getWaitMillis() {
+        return waitNanos.get() / 1000000;
+    }
+
+    /** Reset the abort and wait counters. */
+    public void resetCounters() {
+        aborts.set(0);
+        waits.set(0);
+        waitNanos.set(0);
+    }
+
+    private Stripe stripeFor(Object resource) {
+        int h = resource.hashCode();
+        h ^= (h >>> 16);
+        return stripes[(h & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    private Held heldBy(TransactionId tid) {
+        Held held = locksHeld.get(tid);
+        if (held == null) {
+            held = new Held();
+            Held existing = locksHeld.putIfAbsent(tid, held);
+            if (existing != null)
+                held = existing;
+        }
+        return held;
+    }
+
+    /**
+     * Lock a whole table, blocking until the lock is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param mode the mode to lock the table in
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock, or the waiting thread is interrupted
+     */
+    public void acquireTable(TransactionId tid, int tableId, LockMode mode)
+            throws TransactionAbortedException {
+        lock(tid, new TableResource(tableId), mode);
+    }
+
+    /**
+     * Lock a page, after taking the matching intention lock on its table.
+     * Nothing is locked if the transaction's table lock already covers the
+     * request.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param mode the mode to lock the page in
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock, or the waiting thread is interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, LockMode mode)
+            throws TransactionAbortedException {
+        TableResource table = new TableResource(pid.getTableId());
+        if (covered(tid, table, mode))
+            return;
+        lock(tid, table, mode.intention());
+        if (lock(tid, pid, mode))
+            countPage(tid, pid.getTableId(), 1);
+    }
+
+    /**
+     * Lock a single tuple, after taking the matching intention locks on its
+     * page and table.
+     *
+     * @param tid the transaction requesting the lock
+     * @param rid the tuple to lock
+     * @param mode the mode to lock the tuple in: SHARED or EXCLUSIVE
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock, or the waiting thread is interrupted
+     */
+    public void acquire(TransactionId tid, RecordId rid, LockMode mode)
+            throws TransactionAbortedException {
+        PageId pid = rid.getPageId();
+        TableResource table = new TableResource(pid.getTableId());
+        if (covered(tid, table, mode) || covered(tid, pid, mode))
+            return;
+        lock(tid, table, mode.intention());
+        if (lock(tid, pid, mode.intention()))
+            countPage(tid, pid.getTableId(), 1);
+        lock(tid, rid, mode);
+    }
+
+    private boolean covered(TransactionId tid, Object resource, LockMode mode) {
+        LockMode held = getLockMode(tid, resource);
+        return held != null && held.covers(mode);
+    }
+
+    /* count page locks taken (or dropped) on a table, escalating past the threshold */
+    private void countPage(TransactionId tid, int tableId, int delta)
+            throws TransactionAbortedException {
+        Held held = heldBy(tid);
+        int pages;
+        synchronized (held) {
+            Integer count = held.pageCounts.get(tableId);
+            pages = (count == null ? 0 : count) + delta;
+            if (pages > 0)
+                held.pageCounts.put(tableId, pages);
+            else
+                held.pageCounts.remove(tableId);
+        }
+        if (delta > 0 && pages > escalationThreshold)
+            escalate(tid, tableId);
+    }
+
+    /* replace tid's page and tuple locks on a table with one table lock */
+    private void escalate(TransactionId tid, int tableId)
+            throws TransactionAbortedException {
+        Held held = heldBy(tid);
+        ArrayList<Object> children = new ArrayList<Object>();
+        boolean writer = false;
+        synchronized (held) {
+            for (Object resource : held.resources) {
+                if (!(resource instanceof TableResource) && tableOf(resource) == tableId)
+                    children.add(resource);
+            }
+        }
+        for (Object resource : children) {
+            LockMode mode = getLockMode(tid, resource);
+            if (mode != null && mode != LockMode.SHARED && mode != LockMode.INTENTION_SHARED)
+                writer = true;
+        }
+
+        lock(tid, new TableResource(tableId), writer ? LockMode.EXCLUSIVE : LockMode.SHARED);
+
+        synchronized (held) {
+            held.resources.removeAll(children);
+            held.pageCounts.remove(tableId);
+        }
+        for (Object resource : children)
+            unlock(tid, resource);
+    }
+
+    private static int tableOf(Object resource) {
+        if (resource instanceof PageId)
+            return ((PageId) resource).getTableId();
+        if (resource instanceof RecordId)
+            return ((RecordId) resource).getPageId().getTableId();
+        return ((TableResource) resource).tableId;
+    }
+
+    /*
+     * Lock one resource, upgrading a weaker lock tid already holds on it.
+     * @return true if tid did not hold any lock on the resource before
+     */
+    private boolean lock(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid))
+            throw aborted();
+        Stripe stripe = stripeFor(resource);
+        boolean newlyHeld;
+        long waitStart = 0;
+        try {
+            synchronized (stripe) {
+                Lock lock;
+                LockMode want;
+                while (true) {
+                    // look the lock up again each time: it is dropped from the
+                    // table whenever its last holder releases it
+                    lock = stripe.locks.get(resource);
+                    if (lock == null) {
+                        lock = new Lock();
+                        stripe.locks.put(resource, lock);
+                    }
+
+                    LockMode held = lock.holders.get(tid);
+                    if (held != null && held.covers(mode))
+                        return false;
+                    want = held == null ? mode : held.join(mode);
+
+                    Set<TransactionId> blockers = blockers(lock, tid, want);
+                    if (blockers.isEmpty())
+                        break;
+                    resolveConflict(tid, blockers);
+
+                    if (waitStart == 0) {
+                        waitStart = System.nanoTime();
+                        waits.incrementAndGet();
+                    }
+                    try {
+                        stripe.wait(WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        throw aborted();
+                    }
+                }
+                newlyHeld = lock.holders.put(tid, want) == null;
+            }
+        } finally {
+            waitsFor.remove(tid);
+            if (waitStart != 0)
+                waitNanos.addAndGet(System.nanoTime() - waitStart);
+        }
+
+        if (newlyHeld) {
+            Held held = heldBy(tid);
+            synchronized (held) {
+                held.resources.add(resource);
+            }
+        }
+        return newlyHeld;
+    }
+
+    /*
+     * Decide whether tid may wait for the blockers under the current policy.
+     * Returns if it may; throws if tid must abort instead.
+     */
+    private void resolveConflict(TransactionId tid, Set<TransactionId> blockers)
+            throws TransactionAbortedException {
+        if (wounded.contains(tid))
+            throw aborted();
+        switch (policy) {
+        case WAIT_DIE:
+            for (TransactionId blocker : blockers) {
+                if (blocker.getId() < tid.getId())
+                    throw aborted();
+            }
+            break;
+        case WOUND_WAIT:
+            for (TransactionId blocker : blockers) {
+                if (blocker.getId() > tid.getId())
+                    wounded.add(blocker);
+            }
+            break;
+        default:
+            waitsFor.put(tid, blockers);
+            if (deadlocked(tid))
+                throw aborted();
+        }
+    }
+
+    /* count an abort, returning the exception to throw for it */
+    private TransactionAbortedException aborted() {
+        aborts.incrementAndGet();
+        return new TransactionAbortedException();
+    }
+
+    /* @return the other holders of lock that conflict with tid taking it in mode */
+    private Set<TransactionId> blockers(Lock lock, TransactionId tid, LockMode mode) {
+        Set<TransactionId> blockers = new HashSet<TransactionId>();
+        for (Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet()) {
+            if (!holder.getKey().equals(tid) && !mode.compatibleWith(holder.getValue()))
+                blockers.add(holder.getKey());
+        }
+        return blockers;
+    }
+
+    /* @return true if tid can reach itself in the wait-for graph */
+    private boolean deadlocked(TransactionId tid) {
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        Deque<TransactionId> toVisit = new ArrayDeque<TransactionId>();
+        toVisit.push(tid);
+        while (!toVisit.isEmpty()) {
+            Set<TransactionId> edges = waitsFor.get(toVisit.pop());
+            if (edges == null)
+                continue;
+            for (TransactionId next : edges) {
+                if (next.equals(tid))
+                    return true;
+                if (visited.add(next))
+                    toVisit.push(next);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Release the lock tid holds on the specified page, if any.  Locks
+     * on the page's table are kept.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Held held = locksHeld.get(tid);
+        if (held == null)
+            return;
+        boolean removed;
+        synchronized (held) {
+            removed = held.resources.remove(pid);
+        }
+        if (removed) {
+            try {
+                countPage(tid, pid.getTableId(), -1);
+            } catch (TransactionAbortedException e) {
+                // dropping a lock never escalates
+            }
+            unlock(tid, pid);
+        }
+    }
+
+    /**
+     * Release every lock held by the specified transaction.
+     */
+    public void releaseAll(TransactionId tid) {
+        Held held = locksHeld.remove(tid);
+        waitsFor.remove(tid);
+        wounded.remove(tid);
+        if (held == null)
+            return;
+        ArrayList<Object> resources;
+        synchronized (held) {
+            resources = new ArrayList<Object>(held.resources);
+        }
+        for (Object resource : resources)
+            unlock(tid, resource);
+    }
+
+    private void unlock(TransactionId tid, Object resource) {
+        Stripe stripe = stripeFor(resource);
+        synchronized (stripe) {
+            Lock lock = stripe.locks.get(resource);
+            if (lock == null || lock.holders.remove(tid) == null)
+                return;
+            if (lock.holders.isEmpty())
+                stripe.locks.remove(resource);
+            stripe.notifyAll();
+        }
+    }
+
+    /**
+     * Return true if the specified transaction may read the specified page:
+     * it holds a lock on the page itself, or a shared or exclusive lock on
+     * its table.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Held held = locksHeld.get(tid);
+        if (held == null)
+            return false;
+        synchronized (held) {
+            if (held.resources.contains(pid))
+                return true;
+        }
+        return covered(tid, new TableResource(pid.getTableId()), LockMode.SHARED);
+    }
+
+    /**
+     * @return the mode in which tid holds the lock on the specified
+     *   resource (a PageId or RecordId), or null if it does not hold one
+     */
+    public LockMode getLockMode(TransactionId tid, Object resource) {
+        Stripe stripe = stripeFor(resource);
+        synchronized (stripe) {
+            Lock lock = stripe.locks.get(resource);
+            return lock == null ? null : lock.holders.get(tid);
+        }
+    }
+
+    /**
+     * @return the mode in which tid holds the lock on the specified table,
+     *   or null if it does not hold one
+     */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        return getLockMode(tid, new TableResource(tableId));
+    }
+
+    /** @return the pages the specified transaction currently has locked individually */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Held held = locksHeld.get(tid);
+        HashSet<PageId> pages = new HashSet<PageId>();
+        if (held == null)
+            return pages;
+        synchronized (held) {
+            for (Object resource : held.resources) {
+                if (resource instanceof PageId)
+                    pages.add((PageId) resource);
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,306 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LogBuffer is the in-memory tail of the LogFile.  Transactions append
+ * records to it without taking a lock: each reserves its range of log
+ * sequence numbers with a single atomic add and publishes the record.  A
+ * dedicated log writer thread drains the buffer in order, writing every
+ * contiguous run of records with one sequential write, and forces the
+ * file whenever a transaction is waiting for its records to be durable.
+ * All the transactions waiting at that point share the force (group
+ * commit).  Records whose durability can wait a while, such as the commit
+ * records of asynchronous commits, are forced by a deadline instead.
+ * <p>
+ * The writer thread is a daemon started on demand; it exits after a
+ * second without work and is restarted by the next append.
+ *
+ * @Threadsafe
+ */
+class LogBuffer {
+
+    /** How long the writer waits for work before exiting. */
+    private static final long IDLE_MILLIS = 1000;
+
+    private static final int LONG_SIZE = 8;
+
+    /* where the records are written */
+    private final LogSegments segments;
+
+    /* the LSN the next record will get */
+    private final AtomicLong tail;
+
+    /* records appended but not yet written, by LSN */
+    private final ConcurrentSkipListMap<Long, byte[]> filled =
+        new ConcurrentSkipListMap<Long, byte[]>();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Thread writer;
+
+    /* protected by this: the records before written are in the file, and
+       those before durable are forced; some transaction is waiting for the
+       records before durableRequested to be forced */
+    private long written;
+    private long durable;
+    private long durableRequested;
+    private IOException failure;
+
+    /* the records before lazyRequested must be forced by lazyDeadline
+       (0: no such records); protected by this */
+    private long lazyRequested;
+    private long lazyDeadline = 0;
+
+    /* group commit state, protected by this */
+    private int waitingCommits = 0;
+    private long firstRequest = 0;
+    private int groupCommitSize = 64;
+    private long groupCommitDelay = 0;
+    private int forces = 0;
+
+    /**
+     * @param segments the segments of the log
+     * @param tailLsn the LSN of the end of the log, where appends go
+     */
+    LogBuffer(LogSegments segments, long tailLsn) {
+        this.segments = segments;
+        tail = new AtomicLong(tailLsn);
+        written = durable = durableRequested = lazyRequested = tailLsn;
+    }
+
+    /**
+     * Move the end of the log, after the log has been reset or recovered;
+     * everything before the new end is on disk.  The caller must make sure
+     * nothing is appended meanwhile, and that everything appended has been
+     * written.
+     *
+     * @param tailLsn the LSN of the new end of the log
+     */
+    synchronized void reset(long tailLsn) {
+        tail.set(tailLsn);
+        written = durable = durableRequested = lazyRequested = tailLsn;
+        lazyDeadline = 0;
+        notifyAll();
+    }
+
+    /** @return the LSN the next record will get */
+    long tail() {
+        return tail.get();
+    }
+
+    /**
+     * Append a record.  Its last eight bytes are set to its LSN.
+     *
+     * @param record the record, ending with eight bytes of space for its offset
+     * @return the record's LSN
+     */
+    long append(byte[] record) {
+        long lsn = tail.getAndAdd(record.length);
+        for (int i = 0; i < LONG_SIZE; i++)
+            record[record.length - 1 - i] = (byte) (lsn >>> (8 * i));
+        filled.put(lsn, record);
+        wakeWriter();
+        return lsn;
+    }
+
+    private void wakeWriter() {
+        if (!running.get() && running.compareAndSet(false, true)) {
+            Thread t = new Thread(new Runnable() {
+                public void run() {
+                    writeRecords();
+                }
+            }, "log writer");
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        } else {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /** Wait until every record before lsn is written to its segment. */
+    void awaitWritten(long lsn) throws IOException {
+        wakeWriter();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (written < lsn && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Wait until the record at lsn, and every record before it, is on disk.
+     *
+     * @param commit true if the caller is committing; see setGroupCommit
+     */
+    void awaitDurable(long lsn, boolean commit) throws IOException {
+        synchronized (this) {
+            if (durable > lsn)
+                return;
+            if (lsn >= durableRequested)
+                durableRequested = lsn + 1;
+            if (firstRequest == 0)
+                firstRequest = System.currentTimeMillis();
+            if (commit)
+                waitingCommits++;
+        }
+        wakeWriter();
+        boolean interrupted = false;
+        synchronized (this) {
+            while (durable <= lsn && failure == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    /**
+     * Have the record at lsn, and every record before it, forced to disk
+     * within the specified time, without waiting for it.
+     */
+    void requestDurable(long lsn, long withinMillis) {
+        synchronized (this) {
+            if (durable > lsn)
+                return;
+            if (lsn >= lazyRequested)
+                lazyRequested = lsn + 1;
+            long deadline = System.currentTimeMillis() + withinMillis;
+            if (lazyDeadline == 0 || deadline < lazyDeadline)
+                lazyDeadline = deadline;
+        }
+        wakeWriter();
+    }
+
+    /** @return the LSN before which every record is on disk */
+    synchronized long durable() {
+        return durable;
+    }
+
+    /** @see LogFile#setGroupCommit */
+    synchronized void setGroupCommit(int maxBatch, long maxDelay) {
+        groupCommitSize = maxBatch;
+        groupCommitDelay = maxDelay;
+    }
+
+    /** @return the number of times the log has been forced */
+    synchronized int forces() {
+        return forces;
+    }
+
+    /* the writer thread's loop */
+    private void writeRecords() {
+        byte[] batch = new byte[64 * 1024];
+        long idleSince = System.currentTimeMillis();
+        while (true) {
+            try {
+                long start;
+                synchronized (this) {
+                    start = written;
+                }
+
+                // gather the contiguous run of records after what is written
+                int n = 0;
+                long next = start;
+                byte[] record;
+                while ((record = filled.remove(next)) != null) {
+                    if (n + record.length > batch.length) {
+                        byte[] bigger = new byte[Math.max(batch.length * 2, n + record.length)];
+                        System.arraycopy(batch, 0, bigger, 0, n);
+                        batch = bigger;
+                    }
+                    System.arraycopy(record, 0, batch, n, record.length);
+                    n += record.length;
+                    next += record.length;
+                }
+                if (n > 0) {
+                    segments.write(start, batch, 0, n);
+                    synchronized (this) {
+                        written = next;
+                        notifyAll();
+                    }
+                    idleSince = System.currentTimeMillis();
+                    continue;
+                }
+
+                long upTo = -1;
+                long sleep = IDLE_MILLIS;
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    boolean force = false;
+                    if (durableRequested > durable && written >= durableRequested) {
+                        long due = firstRequest + groupCommitDelay;
+                        if (waitingCommits >= groupCommitSize || now >= due)
+                            force = true;
+                        else
+                            sleep = due - now;
+                    }
+                    if (lazyRequested > durable && written >= lazyRequested) {
+                        if (now >= lazyDeadline)
+                            force = true;
+                        else
+                            sleep = Math.min(sleep, lazyDeadline - now);
+                    }
+                    if (force) {
+                        upTo = written;
+                        if (upTo >= durableRequested) {
+                            waitingCommits = 0;
+                            firstRequest = 0;
+                        }
+                        forces++;
+                    }
+                }
+                if (upTo >= 0) {
+                    segments.force();
+                    synchronized (this) {
+                        durable = upTo;
+                        if (durable >= lazyRequested)
+                            lazyDeadline = 0;
+                        notifyAll();
+                    }
+                    idleSince = System.currentTimeMillis();
+                    continue;
+                }
+
+                if (filled.isEmpty() && System.currentTimeMillis() - idleSince >= IDLE_MILLIS) {
+                    synchronized (this) {
+                        if (durableRequested <= durable && lazyRequested <= durable) {
+                            running.set(false);
+                            // an append may have come in before we stopped
+                            if (filled.isEmpty() || !running.compareAndSet(false, true))
+                                return;
+                        }
+                    }
+                }
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleep));
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                running.set(false);
+                return;
+            }
+        }
+    }
+}
@@ -3,7 +3,14 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -32,40 +39,67 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+<p>
+
+Appending a record takes no monitor: records go to an in-memory
+LogBuffer (see LogBuffer), which a log writer thread drains into the
+log's segments.  Operations that read the log back hold this and stop
+appends while they run.
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself is a header of two long integers: the LSN of
+the last written checkpoint, or -1 if there are no checkpoints, and the
+LSN at which the log starts.
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are stored in fixed-size segment files beside the
+log file, whose names are the log file's name followed by a dot and
+the segment number (see LogSegments).  A record is addressed by its log
+sequence number (LSN), its position in the sequence of all bytes ever
+logged; records may span segments.  Truncation drops whole segments
+that only hold records before the start of the log.
+
+<li> Log records are variable length.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer representing the LSN at
+which the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, INSERT and DELETE
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
 <li>UPDATE RECORDS consist of two entries, a before image and an
 after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
-
-<li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+methods.  Each image is a short tag naming the PageCodec that wrote
+it, the page id as written by that codec, and the page data preceded
+by its integer length.
+
+<li> INSERT and DELETE records describe a single tuple added to or
+removed from a heap page.  They consist of the table id, page number
+and slot of the tuple, followed by an integer length and the tuple's
+fields serialized as they are on the page.  An INSERT is redone by
+filling the slot with the tuple and undone by emptying it; a DELETE the
+other way round.  Both are idempotent, so they can be applied to a page
+whether or not it already reflects them.
+
+<li> CHECKPOINT records consist of the LSN at which the checkpoint
+began, the active transactions at the time the checkpoint was taken and
+their first log record on disk, followed by the dirty page table.  The
+format of the record is a long integer begin LSN, an integer count
+of the number of transactions, as well as a long integer transaction id
+and a long integer first record LSN for each active transaction;
+then an integer count of dirty pages, and for each a table id, a page
+number and the long integer LSN of the first log record that may not
+be reflected in the page on disk.
 
 </ul>
 
@@ -74,24 +108,45 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    private RandomAccessFile raf; // the header
+    private final LogSegments segments;
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int INSERT_RECORD = 6;
+    static final int DELETE_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    /** The number of log bytes in each segment file, unless specified. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
 //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    /* Records are appended to the buffer, which a log writer thread drains
+       into the segments.  Appenders hold the read lock of appendLock while
+       they reserve their space; operations that read the log back
+       (rollback, recovery) hold this and the write lock, and wait for the
+       buffer to drain first (see lockFile). */
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+    private final LogBuffer buffer;
+
+    /* how many threads recovery and rollback apply log records with */
+    private volatile int recoveryThreads = Runtime.getRuntime().availableProcessors();
+
+    /* the longest an asynchronous commit record waits to be forced, in ms */
+    private volatile long asyncCommitDelay = 200;
 
-    HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
+    /* LSN of the first record of each running transaction; only changed
+       under the read or write lock of appendLock */
+    final ConcurrentHashMap<Long,Long> tidToFirstLogRecord = new ConcurrentHashMap<Long,Long>();
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -105,9 +160,19 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        @param f The log file's name
+        @param segmentSize The number of log bytes in each segment file
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
+        buffer = new LogBuffer(segments, 0);
 
         // install shutdown hook to force cleanup on close
         // Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -122,23 +187,99 @@ public class LogFile {
 
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
-    // the log.
+    // the log.  Must not be called with the read lock held.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if(recoveryUndecided){
-            recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            synchronized (this) {
+                appendLock.writeLock().lock();
+                try {
+                    if (recoveryUndecided) {
+                        recoveryUndecided = false;
+                        segments.clear();
+                        writeHeader(NO_CHECKPOINT_ID, 0);
+                        buffer.reset(0);
+                    }
+                } finally {
+                    appendLock.writeLock().unlock();
+                }
+            }
+        }
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /* rewrite the header: the last checkpoint and the start of the log.
+       Caller holds this. */
+    private void writeHeader(long checkpoint, long start) throws IOException {
+        raf.seek(0);
+        raf.writeLong(checkpoint);
+        raf.writeLong(start);
+        raf.getChannel().force(true);
+    }
+
+    /** A log record being serialized, before it is appended. */
+    private static class RecordBuilder {
+        final int type;
+        final long tid;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        RecordBuilder(int type, long tid) throws IOException {
+            this.type = type;
+            this.tid = tid;
+            out.writeInt(type);
+            out.writeLong(tid);
+        }
+
+        /** @return the record, with room at the end for its LSN */
+        byte[] finish() throws IOException {
+            out.writeLong(0);
+            out.flush();
+            return bytes.toByteArray();
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /* Append a record to the log buffer, keeping tidToFirstLogRecord up to
+       date with it.  Concurrent appends only share the read lock.
+       @return the record's LSN */
+    private long append(RecordBuilder record) throws IOException {
+        byte[] bytes = record.finish();
+        preAppend();
+        appendLock.readLock().lock();
+        try {
+            long lsn = buffer.append(bytes);
+            if (record.type == BEGIN_RECORD)
+                tidToFirstLogRecord.put(record.tid, lsn);
+            else if (record.type == COMMIT_RECORD || record.type == ABORT_RECORD)
+                tidToFirstLogRecord.remove(record.tid);
+            return lsn;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+    }
+
+    /* Stop appends and wait until everything appended is written, so the
+       log can be read back.  Caller holds this, and must call unlockFile
+       afterwards.
+       @return the LSN of the end of the log */
+    private long lockFile() throws IOException {
+        appendLock.writeLock().lock();
+        try {
+            buffer.awaitWritten(buffer.tail());
+        } catch (IOException e) {
+            appendLock.writeLock().unlock();
+            throw e;
+        }
+        return buffer.tail();
     }
-    
+
+    private void unlockFile() {
+        appendLock.writeLock().unlock();
+    }
+
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
@@ -150,7 +291,6 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
-                preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
@@ -158,32 +298,73 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
-                tidToFirstLogRecord.remove(tid.getId());
+                long lsn = append(new RecordBuilder(ABORT_RECORD, tid.getId()));
+                buffer.awaitDurable(lsn, false);
             }
         }
     }
 
+    /**
+     * Configure group commit.  The log writer forces the log once for all
+     * the transactions waiting to commit, but waits up to maxDelay
+     * milliseconds after the first of them for up to maxBatch commits to
+     * gather first.  Transactions that commit while a force is in progress
+     * share the next one.  With a delay of 0 (the default) the log is
+     * forced as soon as a commit is written.
+     *
+     * @param maxBatch the number of commits after which a group is forced
+     *   without waiting out the delay
+     * @param maxDelay the longest a group waits, in milliseconds
+     */
+    public void setGroupCommit(int maxBatch, long maxDelay) {
+        if (maxBatch < 1 || maxDelay < 0)
+            throw new IllegalArgumentException("bad group commit settings");
+        buffer.setGroupCommit(maxBatch, maxDelay);
+    }
+
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The force is shared with
+        other transactions committing at the same time; see
+        {@link #setGroupCommit}.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
+    public void logCommit(TransactionId tid) throws IOException {
+        logCommit(tid, true);
+    }
+
+    /** Write a commit record for the specified tid.  Unless wait is
+        set, return without waiting for the record to reach disk: the
+        log writer forces it within the async commit delay, or sooner
+        if another transaction forces the log first.
+
+        @param tid The committing transaction.
+        @param wait true to wait for the log to be forced, as
+          {@link #logCommit(TransactionId)} does
+        @see #setAsyncCommitDelay
+    */
+    public void logCommit(TransactionId tid, boolean wait) throws IOException {
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
+        long lsn = append(new RecordBuilder(COMMIT_RECORD, tid.getId()));
+        if (wait)
+            buffer.awaitDurable(lsn, true);
+        else
+            buffer.requestDurable(lsn, asyncCommitDelay);
+    }
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    /**
+     * Set how long the commit record of an asynchronous commit may stay
+     * in the log buffer before the log writer forces it.  This bounds how
+     * much committed work a crash can lose.
+     *
+     * @param millis the longest delay, in milliseconds (200 by default)
+     * @see Transaction#setAsyncCommit
+     */
+    public void setAsyncCommitDelay(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("bad async commit delay");
+        asyncCommitDelay = millis;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -194,263 +375,362 @@ public class LogFile {
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
-                                       Page after)
+    public void logWrite(TransactionId tid, Page before,
+                         Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
            transaction id
            before page data (see writePageData)
            after page data
-           start offset
+           start LSN
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        logBeginIfNeeded(tid);
+        RecordBuilder record = new RecordBuilder(UPDATE_RECORD, tid.getId());
+        writePageData(record.out, before);
+        writePageData(record.out, after);
+        long lsn = append(record);
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        Debug.log("WRITE LSN = " + lsn);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int pageInfo[] = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+    /** Write an INSERT record for a tuple the specified transaction has
+        just added to a heap page.  Much smaller than an UPDATE record:
+        only the tuple is logged, not the images of its page.
+        @param tid The transaction performing the insert
+        @param t The inserted tuple, with its new RecordId
+        @return the LSN of the record
+    */
+    public long logInsert(TransactionId tid, Tuple t)
+        throws IOException {
+        return logTupleChange(INSERT_RECORD, tid, t);
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int i = 0; i < pageInfo.length; i++) {
-            raf.writeInt(pageInfo[i]);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    /** Write a DELETE record for a tuple the specified transaction has
+        just removed from a heap page.
+        @param tid The transaction performing the delete
+        @param t The deleted tuple, with the RecordId it had
+        @return the LSN of the record
+    */
+    public long logDelete(TransactionId tid, Tuple t)
+        throws IOException {
+        return logTupleChange(DELETE_RECORD, tid, t);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    private long logTupleChange(int type, TransactionId tid, Tuple t)
+        throws IOException {
+        RecordId rid = t.getRecordId();
+        logBeginIfNeeded(tid);
+        RecordBuilder record = new RecordBuilder(type, tid.getId());
+        writeTupleChange(record.out, new TupleChange(rid.getPageId().getTableId(),
+            rid.getPageId().pageNumber(), rid.tupleno(), tupleData(t)));
+        return append(record);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    /* @return t's fields, serialized as they are on a page */
+    static byte[] tupleData(Tuple t) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+            t.getField(i).serialize(dos);
+        dos.flush();
+        return baos.toByteArray();
+    }
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object idArgs[] = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = new Integer(raf.readInt());
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+    /** The body of an INSERT or DELETE record. */
+    static class TupleChange {
+        final int tableId;
+        final int pageNo;
+        final int slot;
+        final byte[] data;
+
+        TupleChange(int tableId, int pageNo, int slot, byte[] data) {
+            this.tableId = tableId;
+            this.pageNo = pageNo;
+            this.slot = slot;
+            this.data = data;
+        }
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        HeapPageId pageId() {
+            return new HeapPageId(tableId, pageNo);
+        }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+        /**
+         * Apply an INSERT or DELETE record of this change to the page,
+         * forwards (redo) or backwards (undo).
+         * @return true if the page changed
+         */
+        boolean apply(int type, boolean redo, HeapPage page) throws IOException {
+            if ((type == INSERT_RECORD) == redo)
+                return page.restoreTuple(slot, data);
+            return page.clearSlot(slot);
+        }
+    }
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+    void writeTupleChange(DataOutput out, TupleChange change) throws IOException {
+        out.writeInt(change.tableId);
+        out.writeInt(change.pageNo);
+        out.writeInt(change.slot);
+        out.writeInt(change.data.length);
+        out.write(change.data);
+    }
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+    TupleChange readTupleChange(DataInput in) throws IOException {
+        int tableId = in.readInt();
+        int pageNo = in.readInt();
+        int slot = in.readInt();
+        int length = in.readInt();
+        if (length < 0 || length > BufferPool.getPageSize())
+            throw new EOFException("bad tuple length " + length);
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new TupleChange(tableId, pageNo, slot, data);
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException e){
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
-            throw new IOException();
-        } catch (InvocationTargetException e) {
-            e.printStackTrace();
-            throw new IOException();
-        }
-        return newPage;
+    void writePageData(DataOutput out, Page p) throws IOException{
+        //page data is:
+        // page codec tag
+        // page id, as written by the codec
+        // page data length
+        // page data
+        PageCodec.forPage(p).write(out, p);
+    }
 
+    Page readPageData(DataInput in) throws IOException {
+        return PageCodec.read(in);
     }
 
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
     */
-    public synchronized  void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
         throws IOException {
         Debug.log("BEGIN");
         if(tidToFirstLogRecord.get(tid.getId()) != null){
             System.err.printf("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        long lsn = append(new RecordBuilder(BEGIN_RECORD, tid.getId()));
 
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        Debug.log("BEGIN LSN = " + lsn);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
-    public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
-                }
+    /* Log a BEGIN record for tid before its first change, if it has not
+       begun yet: transactions do not log one when they start, so that
+       those that only read never touch the log. */
+    private void logBeginIfNeeded(TransactionId tid) throws IOException {
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            logXactionBegin(tid);
+    }
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
-            }
+    /** @return true if the specified transaction has logged a BEGIN
+        record and has not committed or aborted since */
+    public boolean hasBegun(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    /** Checkpoint the log and write a checkpoint record.
+        The checkpoint is fuzzy: it records the running transactions and
+        the buffer pool's dirty page table instead of flushing the buffer
+        pool, and holds neither the buffer pool nor the log for longer than
+        it takes to copy those tables, so it does not stall other
+        transactions.  Recovery starts from the point at which the
+        checkpoint began, or from the oldest record it says is needed.
+    */
+    public void logCheckpoint() throws IOException {
+        preAppend();
+        long beginLsn;
+        HashMap<Long, Long> running = new HashMap<Long, Long>();
+        // with the write lock held no transaction is between appending
+        // its BEGIN or COMMIT record and noting it in tidToFirstLogRecord
+        appendLock.writeLock().lock();
+        try {
+            beginLsn = buffer.tail();
+            running.putAll(tidToFirstLogRecord);
+        } finally {
+            appendLock.writeLock().unlock();
+        }
+        // taken without holding the log: the buffer pool calls into the log
+        // while it holds itself
+        Map<PageId, Long> dirtyPageTable = Database.getBufferPool().getDirtyPageTable();
+
+        synchronized (this) {
+            Checkpoint cp = new Checkpoint();
+            cp.beginLsn = beginLsn;
+            cp.firstRecords.putAll(running);
+            cp.dirtyPages.putAll(dirtyPageTable);
+
+            RecordBuilder record = new RecordBuilder(CHECKPOINT_RECORD, -1); //no tid , but leave space for convenience
+            writeCheckpoint(record.out, cp);
+            long cpLsn = append(record);
+            force();
+
+            //once the CP is on disk, make sure the CP location in the
+            // header of the log file is updated
+            raf.seek(LONG_SIZE);
+            writeHeader(cpLsn, raf.readLong());
         }
 
         logTruncate();
     }
 
-    /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
-    public synchronized void logTruncate() throws IOException {
-        preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
-
-        long minLogRecord = cpLoc;
+    /** The body of a CHECKPOINT record: the LSN at which the checkpoint
+        began, the transactions running when it was taken, with the LSN of
+        their first log record, and the dirty page table, with the LSN of
+        the first log record that may not be reflected on each dirty page. */
+    static class Checkpoint {
+        long beginLsn;
+        final HashMap<Long, Long> firstRecords = new HashMap<Long, Long>();
+        final HashMap<PageId, Long> dirtyPages = new HashMap<PageId, Long>();
+
+        /** @return the earliest LSN recovery may need to read from */
+        long minLsn() {
+            long min = beginLsn;
+            for (long lsn : firstRecords.values())
+                min = Math.min(min, lsn);
+            for (long lsn : dirtyPages.values())
+                min = Math.min(min, lsn);
+            return min;
+        }
+    }
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+    void writeCheckpoint(DataOutput out, Checkpoint cp) throws IOException {
+        out.writeLong(cp.beginLsn);
+        out.writeInt(cp.firstRecords.size());
+        for (Map.Entry<Long, Long> xaction : cp.firstRecords.entrySet()) {
+            Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + xaction.getKey());
+            out.writeLong(xaction.getKey());
+            out.writeLong(xaction.getValue());
+        }
+        out.writeInt(cp.dirtyPages.size());
+        for (Map.Entry<PageId, Long> dirty : cp.dirtyPages.entrySet()) {
+            out.writeInt(dirty.getKey().getTableId());
+            out.writeInt(dirty.getKey().pageNumber());
+            out.writeLong(dirty.getValue());
+        }
+    }
 
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
+    Checkpoint readCheckpoint(DataInput in) throws IOException {
+        Checkpoint cp = new Checkpoint();
+        cp.beginLsn = in.readLong();
+        int numXactions = in.readInt();
+        if (numXactions < 0)
+            throw new EOFException("bad checkpoint record");
+        while (numXactions-- > 0) {
+            long xid = in.readLong();
+            cp.firstRecords.put(xid, in.readLong());
+        }
+        int numDirty = in.readInt();
+        if (numDirty < 0)
+            throw new EOFException("bad checkpoint record");
+        while (numDirty-- > 0) {
+            HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+            cp.dirtyPages.put(pid, in.readLong());
+        }
+        return cp;
+    }
 
-            int numOutstanding = raf.readInt();
+    /** A log record, as read back by readRecord. */
+    static class LogRecord {
+        int type;
+        long tid;
+        long lsn;
+        Page before, after;       // UPDATE records
+        TupleChange change;       // INSERT and DELETE records
+        Checkpoint checkpoint;    // CHECKPOINT records
+
+        /** @return the page this record changes, or null if it changes none */
+        PageId pageId() {
+            if (change != null)
+                return change.pageId();
+            return after == null ? null : after.getId();
+        }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
+        /** Apply the record to the page, forwards (redo) or backwards (undo).
+            @return the page's new contents, or null if they did not change */
+        Page apply(Page page, boolean redo) throws IOException {
+            if (type == UPDATE_RECORD)
+                return redo ? after : before;
+            return change.apply(type, redo, (HeapPage) page) ? page : null;
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+    /** Read the log record at the position of in.
+        @throws EOFException if the log ends before the record does */
+    LogRecord readRecord(LogSegments.Reader in) throws IOException {
+        LogRecord record = new LogRecord();
+        record.lsn = in.position();
+        record.type = in.readInt();
+        record.tid = in.readLong();
+        switch (record.type) {
+        case UPDATE_RECORD:
+            record.before = readPageData(in);
+            record.after = readPageData(in);
+            break;
+        case INSERT_RECORD:
+        case DELETE_RECORD:
+            record.change = readTupleChange(in);
+            break;
+        case CHECKPOINT_RECORD:
+            record.checkpoint = readCheckpoint(in);
+            break;
+        case ABORT_RECORD:
+        case COMMIT_RECORD:
+        case BEGIN_RECORD:
+            break;
+        default:
+            throw new EOFException("unknown log record type " + record.type);
+        }
+        if (in.readLong() != record.lsn)
+            throw new EOFException("torn log record at " + record.lsn);
+        return record;
+    }
 
-        raf.seek(minLogRecord);
+    /** Truncate any unneeded portion of the log to reduce its space
+        consumption.  The log is moved to start at the oldest record the
+        last checkpoint needs, and the segments before it are dropped or
+        recycled, without copying any records. */
+    public void logTruncate() throws IOException {
+        preAppend();
+        synchronized (this) {
+            raf.seek(0);
+            long cpLoc = raf.readLong();
+            long start = raf.readLong();
+            if (cpLoc == NO_CHECKPOINT_ID)
+                return;
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
+            LogSegments.Reader in = segments.reader(cpLoc);
+            LogRecord cpRecord;
             try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
-
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
-
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
-
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
-                }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
+                cpRecord = readRecord(in);
+            } finally {
+                in.close();
+            }
+            if (cpRecord.type != CHECKPOINT_RECORD) {
+                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
+            long minLogRecord = cpRecord.checkpoint.minLsn();
+            if (minLogRecord <= start)
+                return;
+
+            // we can truncate everything before minLogRecord
+            Debug.log("TRUNCATING LOG; NEW START : " + minLogRecord);
+            writeHeader(cpLoc, minLogRecord);
+            segments.dropBefore(minLogRecord, buffer.tail());
         }
+    }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+    /** @return the LSN at which the log starts */
+    synchronized long getStartLsn() throws IOException {
+        raf.seek(LONG_SIZE);
+        return raf.readLong();
+    }
 
-        currentOffset = raf.getFilePointer();
-        //print();
+    /** @return the number of segment files of the log, spares included */
+    int getSegmentCount() {
+        return segments.fileCount();
     }
 
     /** Rollback the specified transaction, setting the state of any
@@ -464,21 +744,212 @@ public class LogFile {
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
+            // undo works on disk, so pages this transaction changed after
+            // an asynchronous commit did must be written first
+            Database.getBufferPool().flushLazyPages(tid);
+            preAppend();
             synchronized(this) {
-                preAppend();
-                // some code goes here
+                long end = lockFile();
+                try {
+                    Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                    if (firstRecord == null)
+                        throw new NoSuchElementException("no log records for transaction " + tid.getId());
+
+                    HashSet<Long> tids = new HashSet<Long>();
+                    tids.add(tid.getId());
+                    undo(tids, firstRecord, end);
+                } finally {
+                    unlockFile();
+                }
+            }
+        }
+    }
+
+    /* Undo, newest first, the changes logged by the specified transactions
+       between the LSNs start and end, installing the pages on disk.
+       Caller must hold the buffer pool and this, and have locked the file. */
+    private void undo(Set<Long> tids, long start, long end) throws IOException {
+        ArrayList<LogRecord> changes = new ArrayList<LogRecord>();
+        LogSegments.Reader in = segments.reader(start);
+        try {
+            while (in.position() < end) {
+                LogRecord record = readRecord(in);
+                if (record.pageId() != null && tids.contains(record.tid))
+                    changes.add(record);
+            }
+        } finally {
+            in.close();
+        }
+
+        HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+        HashSet<PageId> changed = new HashSet<PageId>();
+        Collections.reverse(changes);
+        applyAll(changes, false, pages, changed);
+        installPages(pages, changed);
+    }
+
+    /* Apply records to their pages, in the order given, and note the pages
+       that changed.  Pages are independent, so they are spread over the
+       recovery threads; each page's records are applied by one thread, in
+       order. */
+    private void applyAll(List<LogRecord> records, final boolean redo,
+                          final HashMap<PageId, Page> pages, final HashSet<PageId> changed)
+        throws IOException {
+        LinkedHashMap<PageId, ArrayList<LogRecord>> byPage = new LinkedHashMap<PageId, ArrayList<LogRecord>>();
+        for (LogRecord record : records) {
+            ArrayList<LogRecord> pageRecords = byPage.get(record.pageId());
+            if (pageRecords == null) {
+                pageRecords = new ArrayList<LogRecord>();
+                byPage.put(record.pageId(), pageRecords);
             }
+            pageRecords.add(record);
+        }
+
+        int threads = Math.min(recoveryThreads, byPage.size());
+        if (threads <= 1) {
+            for (LogRecord record : records)
+                applyToPage(record, redo, pages, changed);
+            return;
         }
+
+        ArrayList<ArrayList<ArrayList<LogRecord>>> parts = new ArrayList<ArrayList<ArrayList<LogRecord>>>();
+        for (int i = 0; i < threads; i++)
+            parts.add(new ArrayList<ArrayList<LogRecord>>());
+        int next = 0;
+        for (ArrayList<LogRecord> pageRecords : byPage.values())
+            parts.get(next++ % threads).add(pageRecords);
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final ArrayList<ArrayList<LogRecord>> part : parts) {
+            tasks.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    HashMap<PageId, Page> myPages = new HashMap<PageId, Page>();
+                    HashSet<PageId> myChanged = new HashSet<PageId>();
+                    for (ArrayList<LogRecord> pageRecords : part) {
+                        for (LogRecord record : pageRecords)
+                            applyToPage(record, redo, myPages, myChanged);
+                    }
+                    synchronized (pages) {
+                        pages.putAll(myPages);
+                        changed.addAll(myChanged);
+                    }
+                    return null;
+                }
+            });
+        }
+        runInParallel(tasks);
+    }
+
+    /* Run tasks on up to recoveryThreads threads, and wait for all of
+       them; rethrows the first failure. */
+    private void runInParallel(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.size() == 1 || recoveryThreads == 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw failure(e);
+                }
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(recoveryThreads, tasks.size()));
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    throw failure(e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while applying log records");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* the exception to throw for a failed task; unchecked ones are rethrown */
+    private static IOException failure(Throwable cause) {
+        if (cause instanceof IOException)
+            return (IOException) cause;
+        if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+        if (cause instanceof Error)
+            throw (Error) cause;
+        return new IOException(cause);
+    }
+
+    /* Apply a record to its page as held in pages, reading the page from
+       disk the first time, and note whether it changed. */
+    private void applyToPage(LogRecord record, boolean redo,
+                             HashMap<PageId, Page> pages, HashSet<PageId> changed)
+        throws IOException {
+        PageId pid = record.pageId();
+        Page page = pages.get(pid);
+        if (page == null && record.type != UPDATE_RECORD) {
+            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+            pages.put(pid, page);
+        }
+        Page applied = record.apply(page, redo);
+        if (applied != null) {
+            pages.put(pid, applied);
+            changed.add(pid);
+        }
+    }
+
+    /* Write the changed pages to disk, each file's pages in one forced
+       write, with the files written in parallel, and drop every page in
+       pages from the buffer pool, whose copies are now stale. */
+    private void installPages(HashMap<PageId, Page> pages, Set<PageId> changed)
+        throws IOException {
+        TreeMap<Integer, ArrayList<Page>> byTable = new TreeMap<Integer, ArrayList<Page>>();
+        for (PageId pid : changed) {
+            ArrayList<Page> tablePages = byTable.get(pid.getTableId());
+            if (tablePages == null) {
+                tablePages = new ArrayList<Page>();
+                byTable.put(pid.getTableId(), tablePages);
+            }
+            tablePages.add(pages.get(pid));
+        }
+        ArrayList<Callable<Void>> writes = new ArrayList<Callable<Void>>();
+        for (Map.Entry<Integer, ArrayList<Page>> table : byTable.entrySet()) {
+            final ArrayList<Page> tablePages = table.getValue();
+            final DbFile file = Database.getCatalog().getDatabaseFile(table.getKey());
+            writes.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    Collections.sort(tablePages, new Comparator<Page>() {
+                        public int compare(Page p1, Page p2) {
+                            return p1.getId().pageNumber() - p2.getId().pageNumber();
+                        }
+                    });
+                    if (file instanceof HeapFile) {
+                        ((HeapFile) file).writePages(tablePages);
+                    } else {
+                        for (Page page : tablePages)
+                            file.writePage(page);
+                    }
+                    return null;
+                }
+            });
+        }
+        runInParallel(writes);
+        for (PageId pid : pages.keySet())
+            Database.getBufferPool().discardPage(pid);
     }
 
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -488,23 +959,219 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery works in three passes, ARIES style:
+        <ul>
+        <li> Analysis reads the last checkpoint's transaction table and
+        dirty page table and brings them up to date by scanning the log
+        forward from the checkpoint.
+        <li> Redo replays the changes of transactions that did not roll
+        back, starting from the oldest record the dirty page table says
+        may be missing from disk, and skipping records older than their
+        page's entry.
+        <li> Undo rolls back the transactions that never finished, newest
+        change first, and logs an ABORT record for each of them.
+        </ul>
+        The work done is proportional to the log written since the
+        checkpoint, plus whatever the oldest dirty page or running
+        transaction at the checkpoint reaches back to.  Redo and undo
+        spread pages over several threads (see setRecoveryThreads),
+        applying each page's records in log order on one thread, and write
+        the pages of different tables in parallel.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // some code goes here
+                lockFile();
+                try {
+                    recover0();
+                } finally {
+                    unlockFile();
+                }
             }
-         }
+        }
+    }
+
+    /* the body of recover */
+    private void recover0() throws IOException {
+        recoveryUndecided = false;
+        if (raf.length() < 2 * LONG_SIZE) {
+            // nothing was ever logged
+            segments.clear();
+            writeHeader(NO_CHECKPOINT_ID, 0);
+            buffer.reset(0);
+            return;
+        }
+
+        // analysis
+        raf.seek(0);
+        long cpLoc = raf.readLong();
+        long analysisStart = raf.readLong();
+        Checkpoint cp = new Checkpoint();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            LogSegments.Reader in = segments.reader(cpLoc);
+            try {
+                cp = readRecord(in).checkpoint;
+            } finally {
+                in.close();
+            }
+            // records appended while the checkpoint was taken may
+            // be missing from its tables
+            analysisStart = cp.beginLsn;
+        }
+        HashMap<Long, Long> running = new HashMap<Long, Long>(cp.firstRecords);
+        HashMap<PageId, Long> dirtyPages = new HashMap<PageId, Long>(cp.dirtyPages);
+        HashSet<Long> rolledBack = new HashSet<Long>();
+        long redoStart = analysisStart;
+        for (long lsn : dirtyPages.values())
+            redoStart = Math.min(redoStart, lsn);
+
+        ArrayList<LogRecord> changes = new ArrayList<LogRecord>();
+        long logEnd = redoStart;
+        LogSegments.Reader in = segments.reader(redoStart);
+        try {
+            while (true) {
+                LogRecord record;
+                try {
+                    record = readRecord(in);
+                } catch (EOFException e) {
+                    break; // end of the log, or a record torn by the crash
+                }
+                logEnd = in.position();
+                boolean afterCheckpoint = record.lsn >= analysisStart;
+                switch (record.type) {
+                case BEGIN_RECORD:
+                    if (afterCheckpoint)
+                        running.put(record.tid, record.lsn);
+                    break;
+                case COMMIT_RECORD:
+                    running.remove(record.tid);
+                    break;
+                case ABORT_RECORD:
+                    // rollback installed its undo before logging this
+                    running.remove(record.tid);
+                    rolledBack.add(record.tid);
+                    break;
+                case UPDATE_RECORD:
+                case INSERT_RECORD:
+                case DELETE_RECORD:
+                    if (afterCheckpoint && !dirtyPages.containsKey(record.pageId()))
+                        dirtyPages.put(record.pageId(), record.lsn);
+                    changes.add(record);
+                    break;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        // redo
+        ArrayList<LogRecord> redo = new ArrayList<LogRecord>();
+        for (LogRecord record : changes) {
+            if (rolledBack.contains(record.tid) || running.containsKey(record.tid))
+                continue;
+            Long recoveryLsn = dirtyPages.get(record.pageId());
+            if (recoveryLsn == null || record.lsn < recoveryLsn)
+                continue;
+            redo.add(record);
+        }
+        HashMap<PageId, Page> pages = new HashMap<PageId, Page>();
+        HashSet<PageId> changed = new HashSet<PageId>();
+        applyAll(redo, true, pages, changed);
+        installPages(pages, changed);
+
+        // undo
+        segments.endAt(logEnd);
+        if (!running.isEmpty())
+            undo(running.keySet(), Collections.min(running.values()), logEnd);
+        tidToFirstLogRecord.clear();
+        buffer.reset(logEnd);
+        for (long tid : running.keySet())
+            append(new RecordBuilder(ABORT_RECORD, tid));
+        force();
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            long end = lockFile();
+            try {
+                print0(end);
+            } finally {
+                unlockFile();
+            }
+        }
     }
 
-    public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /* the body of print */
+    private void print0(long end) throws IOException {
+        if (raf.length() < 2 * LONG_SIZE)
+            return;
+        raf.seek(0);
+        System.out.println("checkpoint at " + raf.readLong());
+        LogSegments.Reader in = segments.reader(raf.readLong());
+        while (in.position() < end) {
+            LogRecord record;
+            try {
+                record = readRecord(in);
+            } catch (EOFException e) {
+                System.out.println("(torn record at end of log)");
+                break;
+            }
+            StringBuilder line = new StringBuilder();
+            line.append(record.lsn).append(": ");
+            switch (record.type) {
+            case ABORT_RECORD: line.append("ABORT"); break;
+            case COMMIT_RECORD: line.append("COMMIT"); break;
+            case BEGIN_RECORD: line.append("BEGIN"); break;
+            case UPDATE_RECORD: line.append("UPDATE"); break;
+            case INSERT_RECORD: line.append("INSERT"); break;
+            case DELETE_RECORD: line.append("DELETE"); break;
+            case CHECKPOINT_RECORD:
+                line.append("CHECKPOINT running=").append(record.checkpoint.firstRecords)
+                    .append(" dirty=").append(record.checkpoint.dirtyPages.size());
+                break;
+            }
+            if (record.type != CHECKPOINT_RECORD)
+                line.append(" tid=").append(record.tid);
+            PageId pid = record.pageId();
+            if (pid != null)
+                line.append(" table=").append(pid.getTableId()).append(" page=").append(pid.pageNumber());
+            if (record.change != null)
+                line.append(" slot=").append(record.change.slot);
+            System.out.println(line);
+        }
+        in.close();
+    }
+
+    /** Force everything appended to the log so far to disk. */
+    public void force() throws IOException {
+        buffer.awaitDurable(buffer.tail() - 1, false);
+    }
+
+    /** Set the number of threads recovery and rollback use to redo and
+        undo log records; by default, one per processor.
+        @param n the number of threads, at least 1
+    */
+    public void setRecoveryThreads(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("need at least one recovery thread");
+        recoveryThreads = n;
+    }
+
+    /** @return the number of times the log has been forced to disk */
+    public int getTotalForces() {
+        return buffer.forces();
+    }
+
+    /** @return the LSN the next record appended will get */
+    long getEndLsn() {
+        return buffer.tail();
+    }
+
+    /** @return the LSN up to which the log is on disk */
+    long getDurableLsn() {
+        return buffer.durable();
     }
 
 }
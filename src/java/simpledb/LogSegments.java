@@ -0,0 +1,298 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.TreeSet;
+
+/**
+ * LogSegments stores the records of the log in fixed-size segment files,
+ * named after the log's header file with the segment number appended.  Log
+ * sequence numbers address the log directly: the byte at LSN l is at
+ * offset l % segmentSize of segment l / segmentSize, after the segment
+ * header, which holds the segment's number.
+ * <p>
+ * Truncating the log drops whole segments.  Up to MAX_SPARES of them are
+ * renamed to the numbers of future segments, so the log writer later
+ * writes into files that are already allocated; the rest are deleted.  A
+ * recycled segment keeps its stale contents until they are overwritten,
+ * but a reader never mistakes them for log records: a segment whose header
+ * names another segment ends the log, and every record ends with its own
+ * LSN, which a stale record cannot match.
+ * <p>
+ * Not safe for concurrent readers and writers of the same bytes: the
+ * LogFile only reads what the log writer has finished writing.
+ */
+class LogSegments {
+
+    /** Bytes at the start of each segment file, before its records. */
+    static final int SEGMENT_HEADER = 8;
+
+    /** How many dropped segments are kept for reuse. */
+    static final int MAX_SPARES = 4;
+
+    private final File base;
+    private final int segmentSize;
+
+    /* numbers of the segment files that exist, live or spare; protected by this */
+    private final TreeSet<Long> files = new TreeSet<Long>();
+
+    /* the segment being written, and the files written since the last
+       force; protected by this */
+    private long writeNo = -1;
+    private RandomAccessFile writeFile;
+    private final LinkedHashSet<RandomAccessFile> unforced = new LinkedHashSet<RandomAccessFile>();
+
+    /**
+     * @param base the log's header file; segments are created beside it
+     * @param segmentSize the number of log bytes each segment holds
+     */
+    LogSegments(File base, int segmentSize) {
+        this.base = base;
+        this.segmentSize = segmentSize;
+        File dir = base.getAbsoluteFile().getParentFile();
+        String prefix = base.getName() + ".";
+        String[] names = dir.list();
+        if (names == null)
+            return;
+        for (String name : names) {
+            if (!name.startsWith(prefix))
+                continue;
+            try {
+                files.add(Long.parseLong(name.substring(prefix.length())));
+            } catch (NumberFormatException e) {
+                // not a segment
+            }
+        }
+    }
+
+    File segmentFile(long no) {
+        return new File(base.getPath() + "." + no);
+    }
+
+    /** @return the number of segment files, live and spare */
+    synchronized int fileCount() {
+        return files.size();
+    }
+
+    /** Write len bytes of b at LSN lsn, crossing into new segments as needed. */
+    synchronized void write(long lsn, byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long no = lsn / segmentSize;
+            int pos = (int) (lsn % segmentSize);
+            int n = Math.min(len, segmentSize - pos);
+            RandomAccessFile f = openForWrite(no);
+            f.seek(SEGMENT_HEADER + pos);
+            f.write(b, off, n);
+            unforced.add(f);
+            lsn += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /* open segment no for writing, reusing a spare file or allocating a
+       new one if it is not live yet */
+    private RandomAccessFile openForWrite(long no) throws IOException {
+        if (no == writeNo)
+            return writeFile;
+        RandomAccessFile f = new RandomAccessFile(segmentFile(no), "rw");
+        boolean live = files.contains(no) && f.length() >= SEGMENT_HEADER && f.readLong() == no;
+        if (!live) {
+            if (!files.contains(no)) {
+                f.setLength(SEGMENT_HEADER + segmentSize);
+                files.add(no);
+            }
+            f.seek(0);
+            f.writeLong(no);
+        }
+        if (writeFile != null && !unforced.contains(writeFile))
+            writeFile.close();
+        writeNo = no;
+        writeFile = f;
+        return f;
+    }
+
+    /** Force everything written since the last force to disk. */
+    synchronized void force() throws IOException {
+        for (RandomAccessFile f : unforced) {
+            f.getChannel().force(true);
+            if (f != writeFile)
+                f.close();
+        }
+        unforced.clear();
+    }
+
+    private void closeAll() throws IOException {
+        for (RandomAccessFile f : unforced)
+            f.close();
+        unforced.clear();
+        if (writeFile != null)
+            writeFile.close();
+        writeFile = null;
+        writeNo = -1;
+    }
+
+    /** Close the segment files open for writing. */
+    synchronized void close() throws IOException {
+        closeAll();
+    }
+
+    /** Delete every segment, spares included, so the log is empty. */
+    synchronized void clear() throws IOException {
+        closeAll();
+        for (long no : files)
+            segmentFile(no).delete();
+        files.clear();
+    }
+
+    /**
+     * Drop the segments that only hold bytes before start, keeping up to
+     * MAX_SPARES of them as future segments.
+     *
+     * @param end the LSN of the end of the log
+     */
+    synchronized void dropBefore(long start, long end) throws IOException {
+        long endNo = end / segmentSize;
+        while (!files.isEmpty() && (files.first() + 1) * segmentSize <= start
+               && files.first() < endNo) {
+            long no = files.pollFirst();
+            if (no == writeNo) {
+                unforced.remove(writeFile);
+                writeFile.close();
+                writeFile = null;
+                writeNo = -1;
+            }
+            File file = segmentFile(no);
+            long next = files.isEmpty() ? endNo : Math.max(files.last() + 1, endNo);
+            if (files.tailSet(endNo, false).size() < MAX_SPARES && file.renameTo(segmentFile(next)))
+                files.add(next);
+            else
+                file.delete();
+        }
+    }
+
+    /**
+     * Make lsn the end of the log: zero the rest of its segment and delete
+     * the segments after it, so nothing left there from before a crash
+     * can be read back as part of the log.
+     */
+    synchronized void endAt(long lsn) throws IOException {
+        closeAll();
+        long no = lsn / segmentSize;
+        for (long later : new ArrayList<Long>(files.tailSet(no, false))) {
+            segmentFile(later).delete();
+            files.remove(later);
+        }
+        if (!files.contains(no))
+            return;
+        RandomAccessFile f = new RandomAccessFile(segmentFile(no), "rw");
+        try {
+            if (f.length() < SEGMENT_HEADER || f.readLong() != no)
+                return; // a spare: its stale records are not readable
+            byte[] zeros = new byte[64 * 1024];
+            long pos = SEGMENT_HEADER + lsn % segmentSize;
+            long limit = Math.min(f.length(), SEGMENT_HEADER + (long) segmentSize);
+            f.seek(pos);
+            while (pos < limit) {
+                int n = (int) Math.min(zeros.length, limit - pos);
+                f.write(zeros, 0, n);
+                pos += n;
+            }
+            f.getChannel().force(true);
+        } finally {
+            f.close();
+        }
+    }
+
+    /** @return a reader of the log from lsn on */
+    Reader reader(long lsn) {
+        return new Reader(new SegmentStream(lsn));
+    }
+
+    /**
+     * Reads the log sequentially across segments.  Reading past the end of
+     * the log throws EOFException.
+     */
+    static class Reader extends DataInputStream {
+        private final SegmentStream stream;
+
+        private Reader(SegmentStream stream) {
+            super(stream);
+            this.stream = stream;
+        }
+
+        /** @return the LSN of the next byte to be read */
+        long position() {
+            return stream.position;
+        }
+    }
+
+    private class SegmentStream extends InputStream {
+        long position;
+        private RandomAccessFile file;
+        private long fileNo = -1;
+        private final byte[] buf = new byte[8192];
+        private int pos = 0, len = 0;
+
+        SegmentStream(long position) {
+            this.position = position;
+        }
+
+        public int read() throws IOException {
+            if (pos == len && !fill())
+                return -1;
+            position++;
+            return buf[pos++] & 0xff;
+        }
+
+        public int read(byte[] b, int off, int n) throws IOException {
+            if (n == 0)
+                return 0;
+            if (pos == len && !fill())
+                return -1;
+            n = Math.min(n, len - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            position += n;
+            return n;
+        }
+
+        /* read the next bytes of the log into buf; false at the end of the log */
+        private boolean fill() throws IOException {
+            long no = position / segmentSize;
+            if (no != fileNo) {
+                close();
+                File f = segmentFile(no);
+                if (!f.exists())
+                    return false;
+                file = new RandomAccessFile(f, "r");
+                if (file.length() < SEGMENT_HEADER || file.readLong() != no) {
+                    close();
+                    return false;
+                }
+                fileNo = no;
+            }
+            int offset = (int) (position % segmentSize);
+            file.seek(SEGMENT_HEADER + offset);
+            int n = file.read(buf, 0, Math.min(buf.length, segmentSize - offset));
+            if (n <= 0)
+                return false;
+            pos = 0;
+            len = n;
+            return true;
+        }
+
+        public void close() throws IOException {
+            if (file != null)
+                file.close();
+            file = null;
+            fileNo = -1;
+            pos = len = 0;
+        }
+    }
+}
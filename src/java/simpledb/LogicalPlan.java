@@ -348,6 +348,13 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        //estimated cardinality of each subplan, so joins can hash the smaller side
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            cardMap.put(table.alias, s == null ? 0 : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,9 +388,14 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = cardMap.get(t1name);
+            //a subquery's cardinality is not known: keep hashing it
+            int card2 = isSubqueryJoin ? card1 : cardMap.get(t2name);
+
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = jo.instantiateJoin(lj,plan1,plan2,card1,card2);
             subplanMap.put(t1name, j);
+            cardMap.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, false, false, statsMap));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
@@ -3,19 +3,24 @@ package simpledb;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY.  Its
+ * input is sorted in memory if it fits the memory budget, and with an
+ * external merge sort otherwise (see {@link #setMemoryBudget}).
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private transient TupleSorter sorted;
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
 
+    /** Default memory budget for sorting, in bytes of heap. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -49,6 +54,24 @@ public class OrderBy extends Operator {
 	return this.orderByFieldName;
     }
     
+    /**
+     * Set how much memory the tuples sorted in memory may take up before
+     * sorted runs are written to disk.  Takes effect the next time the
+     * operator is opened.
+     *
+     * @param bytes the budget, in bytes of heap as estimated by
+     *   Tuple.heapSize for each tuple in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 1)
+            throw new IllegalArgumentException("bad memory budget");
+        memoryBudget = bytes;
+    }
+
+    long getMemoryBudget() {
+        return memoryBudget;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -56,21 +79,23 @@ public class OrderBy extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
+        // load all the tuples into a sorter, which spills runs as needed
+        sorted = new TupleSorter(new TupleComparator(orderByField, asc), false, memoryBudget);
         while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            sorted.add(child.next());
+        sorted.finish();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sorted != null)
+            sorted.close();
+        sorted = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        sorted.rewind();
     }
 
     /**
@@ -82,10 +107,7 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        return sorted == null ? null : sorted.next();
     }
 
     @Override
@@ -99,25 +121,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PageCodec writes one kind of page, with its id, into log records and
+ * builds it again when the records are read back.  Each kind of page has a
+ * codec registered under a small numeric tag, which is all a log record
+ * stores to say what kind of page follows; no class names are logged and
+ * no reflection is needed to replay the log.
+ * <p>
+ * The codec for HeapPage is registered under tag 1.  Other page types
+ * must register a codec before they are logged or the log is recovered.
+ *
+ * @see LogFile#writePageData
+ * @see LogFile#readPageData
+ */
+public abstract class PageCodec {
+
+    private static final ConcurrentHashMap<Integer, PageCodec> byTag =
+        new ConcurrentHashMap<Integer, PageCodec>();
+    private static final ConcurrentHashMap<Class<?>, PageCodec> byClass =
+        new ConcurrentHashMap<Class<?>, PageCodec>();
+
+    /** The codec for HeapPages. */
+    public static final PageCodec HEAP_PAGE = new PageCodec(1, HeapPage.class) {
+        protected void writeId(DataOutput out, PageId pid) throws IOException {
+            out.writeInt(pid.getTableId());
+            out.writeInt(pid.pageNumber());
+        }
+
+        protected PageId readId(DataInput in) throws IOException {
+            return new HeapPageId(in.readInt(), in.readInt());
+        }
+
+        protected Page newPage(PageId pid, byte[] data) throws IOException {
+            return new HeapPage((HeapPageId) pid, data);
+        }
+    };
+
+    static {
+        register(HEAP_PAGE);
+    }
+
+    private final int tag;
+    private final Class<? extends Page> pageClass;
+
+    /**
+     * @param tag the number that identifies the page type in the log,
+     *   from 1 to 65535
+     * @param pageClass the class of the pages this codec handles
+     */
+    protected PageCodec(int tag, Class<? extends Page> pageClass) {
+        if (tag < 1 || tag > 0xffff)
+            throw new IllegalArgumentException("page codec tags are 1 to 65535");
+        this.tag = tag;
+        this.pageClass = pageClass;
+    }
+
+    /** @return the number that identifies the page type in the log */
+    public int getTag() {
+        return tag;
+    }
+
+    /** Write the fields of a page id of this codec's page type. */
+    protected abstract void writeId(DataOutput out, PageId pid) throws IOException;
+
+    /** Read back a page id written by writeId. */
+    protected abstract PageId readId(DataInput in) throws IOException;
+
+    /** Build a page from its id and the bytes returned by getPageData. */
+    protected abstract Page newPage(PageId pid, byte[] data) throws IOException;
+
+    /**
+     * Register a codec.  Registering the same codec again has no effect.
+     *
+     * @throws IllegalArgumentException if another codec has the same tag
+     *   or handles the same page class
+     */
+    public static synchronized void register(PageCodec codec) {
+        PageCodec sameTag = byTag.get(codec.tag);
+        PageCodec sameClass = byClass.get(codec.pageClass);
+        if (sameTag == codec && sameClass == codec)
+            return;
+        if (sameTag != null || sameClass != null)
+            throw new IllegalArgumentException("page codec " + codec.tag + " for "
+                + codec.pageClass.getName() + " conflicts with a registered codec");
+        byTag.put(codec.tag, codec);
+        byClass.put(codec.pageClass, codec);
+    }
+
+    /**
+     * @return the codec registered for the page's class
+     * @throws IOException if there is none
+     */
+    static PageCodec forPage(Page p) throws IOException {
+        PageCodec codec = byClass.get(p.getClass());
+        if (codec == null)
+            throw new IOException("no page codec for " + p.getClass().getName());
+        return codec;
+    }
+
+    /**
+     * @return the codec registered under tag
+     * @throws IOException if there is none
+     */
+    static PageCodec forTag(int tag) throws IOException {
+        PageCodec codec = byTag.get(tag);
+        if (codec == null)
+            throw new IOException("no page codec with tag " + tag);
+        return codec;
+    }
+
+    /** Write a page, tag first, so that read can build it again. */
+    void write(DataOutput out, Page p) throws IOException {
+        out.writeShort(tag);
+        writeId(out, p.getId());
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+    }
+
+    /** Read a page written by the codec registered under its tag. */
+    static Page read(DataInput in) throws IOException {
+        PageCodec codec = forTag(in.readUnsignedShort());
+        PageId pid = codec.readId(in);
+        int length = in.readInt();
+        if (length < 0 || length > BufferPool.getPageSize())
+            throw new EOFException("bad page length " + length);
+        byte[] pageData = new byte[length];
+        in.readFully(pageData);
+        return codec.newPage(pid, pageData);
+    }
+}
@@ -0,0 +1,46 @@
+package simpledb;
+
+/**
+ * PageHandle is a pinned reference to a page in the BufferPool.  The page
+ * cannot be evicted while the handle is open; closing the handle drops the
+ * pin.  Handles are returned by {@link BufferPool#pinPage} and are meant to
+ * be used in a try-with-resources block:
+ *
+ * <pre>
+ *     try (PageHandle h = Database.getBufferPool().pinPage(tid, pid, perm)) {
+ *         HeapPage p = (HeapPage) h.getPage();
+ *         ...
+ *     }
+ * </pre>
+ */
+public class PageHandle implements AutoCloseable {
+
+    private final BufferPool pool;
+    private final TransactionId tid;
+    private final Page page;
+    private boolean closed = false;
+
+    PageHandle(BufferPool pool, TransactionId tid, Page page) {
+        this.pool = pool;
+        this.tid = tid;
+        this.page = page;
+    }
+
+    /**
+     * @return the pinned page
+     * @throws IllegalStateException if the handle has been closed
+     */
+    public Page getPage() {
+        if (closed)
+            throw new IllegalStateException("page handle already closed");
+        return page;
+    }
+
+    /** Unpin the page.  Closing a handle more than once has no effect. */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            pool.unpinPage(tid, page.getId());
+        }
+    }
+}
@@ -4,10 +4,10 @@ package simpledb;
 public interface PageId {
 
     /** Return a representation of this page id object as a collection of
-        integers (used for logging)
+        integers.  The log does not use this: page ids are logged by the
+        PageCodec of their page type.
 
-        This class MUST have a constructor that accepts n integer parameters,
-        where n is the number of integers returned in the array from serialize.
+        @see PageCodec
     */
     public int[] serialize();
 
@@ -272,6 +272,17 @@ public class Parser {
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private boolean asyncCommit = false;
+
+    /**
+     * Make the transactions this parser starts from now on commit
+     * asynchronously, or not.
+     *
+     * @see Transaction#setAsyncCommit
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
@@ -453,7 +464,8 @@ public class Parser {
             if (curtrans != null)
                 throw new simpledb.ParsingException(
                         "Can't start new transactions until current transaction has been committed or rolledback.");
-            curtrans = new Transaction();
+            curtrans = new Transaction(s.isReadOnly());
+            curtrans.setAsyncCommit(asyncCommit);
             curtrans.start();
             inUserTrans = true;
             System.out.println("Started a new transaction tid = "
@@ -511,7 +523,9 @@ public class Parser {
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
+                    // a lone query reads a snapshot instead of locking
+                    curtrans = new Transaction(s instanceof ZQuery);
+                    curtrans.setAsyncCommit(asyncCommit);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
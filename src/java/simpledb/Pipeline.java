@@ -0,0 +1,501 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pipeline runs a tree of operators push-based: rather than the root
+ * pulling each tuple up through every operator's fetchNext, a source
+ * pushes its tuples up through a chain of {@link TupleSink}s, one per
+ * operator, to the sink the pipeline is run with.
+ * <p>
+ * The tree is split into pipelines at its pipeline breakers, operators
+ * that must see all of an input before they return anything: an
+ * {@link OrderBy} runs its child's pipeline into a sort, and a
+ * {@link HashJoin} runs its inner child's pipeline into a hash table that
+ * the tuples of its outer child's pipeline then probe.  Filter and Project
+ * are steps of the pipeline they are in.  Any other operator is a source,
+ * read through its DbIterator methods, so trees of any operators can be
+ * run, and the same tree can still be opened and read as before.
+ * <p>
+ * A pipeline whose source is a {@link SeqScan} can be run on several
+ * threads.  The table is split into morsels of one page each, and each
+ * thread takes the next morsel and pushes its tuples through the whole
+ * pipeline, so no thread waits for another until the pipeline is done.
+ * Each thread builds its own part of a hash table or sort that the
+ * pipeline runs into, and the parts are merged once the threads are done.
+ * Scans of tables large compared to the buffer pool read through a
+ * {@link BufferRing}, as SeqScan does.
+ * <p>
+ * The hash table of a HashJoin run this way is kept in memory.  If it
+ * outgrows the join's memory budget, the join is read as a source instead,
+ * as it would be pulled, so that it can spill.
+ */
+public class Pipeline {
+
+    private final DbIterator root;
+
+    /* hash joins that did not fit and are read as sources instead */
+    private final HashSet<DbIterator> pulled = new HashSet<DbIterator>();
+
+    /* where tuples enter the pipeline, and the steps they go through from
+       there to the root */
+    private Source source;
+    private ArrayList<Step> steps;
+
+    /**
+     * Split a tree of operators into pipelines.  The tree must not be
+     * open while the pipeline runs.
+     *
+     * @param root the root of the tree
+     */
+    public Pipeline(DbIterator root) {
+        this.root = root;
+        compile();
+    }
+
+    private void compile() {
+        steps = new ArrayList<Step>();
+        source = compile(root);
+    }
+
+    /* @return the source of op's pipeline, adding the steps from it to op */
+    private Source compile(DbIterator op) {
+        if (pulled.contains(op))
+            return new PullSource(op);
+        if (op instanceof Filter) {
+            Filter filter = (Filter) op;
+            Source s = compile(filter.getChildren()[0]);
+            steps.add(new FilterStep(TupleMatcher.compile(filter.getPredicate())));
+            return s;
+        }
+        if (op instanceof Project) {
+            Project project = (Project) op;
+            Source s = compile(project.getChildren()[0]);
+            steps.add(new ProjectStep(project));
+            return s;
+        }
+        if (op instanceof HashJoin) {
+            HashJoin join = (HashJoin) op;
+            int inner = join.isBuildLeft() ? 0 : 1;
+            Source s = compile(join.getChildren()[1 - inner]);
+            steps.add(new ProbeStep(join, new Pipeline(join.getChildren()[inner])));
+            return s;
+        }
+        if (op instanceof OrderBy) {
+            OrderBy order = (OrderBy) op;
+            return new SortSource(order, new Pipeline(order.getChildren()[0]));
+        }
+        if (op instanceof SeqScan)
+            return new ScanSource((SeqScan) op);
+        return new PullSource(op);
+    }
+
+    /**
+     * Push the tuples of the tree to sink on the calling thread.
+     */
+    public void run(TupleSink sink) throws DbException, TransactionAbortedException {
+        run(sink, 1);
+    }
+
+    /**
+     * Push the tuples of the tree to sink, running scans on up to the
+     * specified number of threads.  With more than one thread the order of
+     * the tuples is not that of the tree, unless they are sorted last.
+     *
+     * @param sink where the tuples go; it must be thread-safe if threads
+     *   is more than 1
+     * @param threads the most threads to run each pipeline on
+     */
+    public void run(TupleSink sink, int threads)
+        throws DbException, TransactionAbortedException {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        try {
+            // run the breakers' pipelines first
+            for (int i = 0; i < steps.size(); i++) {
+                if (!steps.get(i).prepare(threads)) {
+                    // a hash table did not fit: read that join as a source
+                    pulled.add(((ProbeStep) steps.get(i)).join);
+                    release();
+                    compile();
+                    i = -1;
+                }
+            }
+            TupleSink chain = sink;
+            for (int i = steps.size() - 1; i >= 0; i--)
+                chain = steps.get(i).wrap(chain);
+            source.push(chain, threads);
+        } finally {
+            release();
+        }
+    }
+
+    private void release() {
+        for (Step step : steps)
+            step.release();
+    }
+
+    /* an operator tuples go through on their way to the root */
+    private interface Step {
+        /* run any pipeline that must finish first; false if it cannot */
+        boolean prepare(int threads) throws DbException, TransactionAbortedException;
+
+        /* @return a sink that does this step and pushes to next */
+        TupleSink wrap(TupleSink next);
+
+        void release();
+    }
+
+    private static class FilterStep implements Step {
+        private final TupleMatcher matcher;
+
+        FilterStep(TupleMatcher matcher) {
+            this.matcher = matcher;
+        }
+
+        public boolean prepare(int threads) {
+            return true;
+        }
+
+        public TupleSink wrap(final TupleSink next) {
+            return new TupleSink() {
+                public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                    return !matcher.matches(t) || next.consume(t);
+                }
+            };
+        }
+
+        public void release() {
+        }
+    }
+
+    private static class ProjectStep implements Step {
+        private final Project project;
+
+        ProjectStep(Project project) {
+            this.project = project;
+        }
+
+        public boolean prepare(int threads) {
+            return true;
+        }
+
+        public TupleSink wrap(final TupleSink next) {
+            return new TupleSink() {
+                public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                    return next.consume(project.project(t));
+                }
+            };
+        }
+
+        public void release() {
+        }
+    }
+
+    /* probes the hash table of a HashJoin's inner child with its outer child's tuples */
+    private static class ProbeStep implements Step {
+        private final HashJoin join;
+        private final Pipeline build;
+        private HashMap<Field, ArrayList<Tuple>> table;
+
+        ProbeStep(HashJoin join, Pipeline build) {
+            this.join = join;
+            this.build = build;
+        }
+
+        public boolean prepare(int threads) throws DbException, TransactionAbortedException {
+            JoinPredicate jp = join.getJoinPredicate();
+            final int field = join.isBuildLeft() ? jp.getField1() : jp.getField2();
+            final long budget = join.getMemoryBudget();
+            final AtomicLong bytes = new AtomicLong();
+            final PerThread<HashMap<Field, ArrayList<Tuple>>> parts =
+                new PerThread<HashMap<Field, ArrayList<Tuple>>>() {
+                    HashMap<Field, ArrayList<Tuple>> create() {
+                        return new HashMap<Field, ArrayList<Tuple>>();
+                    }
+                };
+            build.run(new TupleSink() {
+                public boolean consume(Tuple t) {
+                    HashMap<Field, ArrayList<Tuple>> part = parts.get();
+                    Field key = t.getField(field);
+                    ArrayList<Tuple> bucket = part.get(key);
+                    if (bucket == null) {
+                        bucket = new ArrayList<Tuple>();
+                        part.put(key, bucket);
+                    }
+                    bucket.add(t);
+                    return bytes.addAndGet(t.heapSize()) <= budget;
+                }
+            }, threads);
+            if (bytes.get() > budget)
+                return false;
+            // merge the threads' tables into the largest of them
+            table = new HashMap<Field, ArrayList<Tuple>>();
+            for (HashMap<Field, ArrayList<Tuple>> part : parts.all()) {
+                if (part.size() > table.size()) {
+                    HashMap<Field, ArrayList<Tuple>> smaller = table;
+                    table = part;
+                    part = smaller;
+                }
+                for (Map.Entry<Field, ArrayList<Tuple>> entry : part.entrySet()) {
+                    ArrayList<Tuple> bucket = table.get(entry.getKey());
+                    if (bucket == null)
+                        table.put(entry.getKey(), entry.getValue());
+                    else
+                        bucket.addAll(entry.getValue());
+                }
+            }
+            return true;
+        }
+
+        public TupleSink wrap(final TupleSink next) {
+            final HashMap<Field, ArrayList<Tuple>> table = this.table;
+            JoinPredicate jp = join.getJoinPredicate();
+            final boolean buildLeft = join.isBuildLeft();
+            final int field = buildLeft ? jp.getField2() : jp.getField1();
+            final TupleDesc td = join.getTupleDesc();
+            return new TupleSink() {
+                public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                    ArrayList<Tuple> bucket = table.get(t.getField(field));
+                    if (bucket == null)
+                        return true;
+                    for (Tuple match : bucket) {
+                        Tuple joined = buildLeft ? Tuple.merge(td, match, t) : Tuple.merge(td, t, match);
+                        if (!next.consume(joined))
+                            return false;
+                    }
+                    return true;
+                }
+            };
+        }
+
+        public void release() {
+            table = null;
+        }
+    }
+
+    /* where the tuples of a pipeline come from */
+    private interface Source {
+        void push(TupleSink sink, int threads) throws DbException, TransactionAbortedException;
+    }
+
+    /* any operator, read through its DbIterator methods */
+    private static class PullSource implements Source {
+        private final DbIterator op;
+
+        PullSource(DbIterator op) {
+            this.op = op;
+        }
+
+        public void push(TupleSink sink, int threads) throws DbException, TransactionAbortedException {
+            op.open();
+            try {
+                while (op.hasNext() && sink.consume(op.next()))
+                    ;
+            } finally {
+                op.close();
+            }
+        }
+    }
+
+    /* the tuples of a pipeline sorted, as OrderBy returns them */
+    private static class SortSource implements Source {
+        private final OrderBy order;
+        private final Pipeline child;
+
+        SortSource(OrderBy order, Pipeline child) {
+            this.order = order;
+            this.child = child;
+        }
+
+        public void push(TupleSink sink, int threads) throws DbException, TransactionAbortedException {
+            final Comparator<Tuple> comparator =
+                new TupleComparator(order.getOrderByField(), order.isASC());
+            // the budget is shared between the threads' sorts
+            final long budget = Math.max(1, order.getMemoryBudget() / threads);
+            final PerThread<TupleSorter> sorters = new PerThread<TupleSorter>() {
+                TupleSorter create() {
+                    return new TupleSorter(comparator, false, budget);
+                }
+            };
+            try {
+                child.run(new TupleSink() {
+                    public boolean consume(Tuple t) throws DbException {
+                        sorters.get().add(t);
+                        return true;
+                    }
+                }, threads);
+                // merge the threads' sorted tuples
+                PriorityQueue<Head> heads = new PriorityQueue<Head>(
+                    Math.max(1, sorters.all().size()), new Comparator<Head>() {
+                        public int compare(Head h1, Head h2) {
+                            return comparator.compare(h1.tuple, h2.tuple);
+                        }
+                    });
+                for (TupleSorter sorter : sorters.all()) {
+                    sorter.finish();
+                    Head head = new Head(sorter);
+                    if (head.tuple != null)
+                        heads.add(head);
+                }
+                Head head;
+                while ((head = heads.poll()) != null) {
+                    if (!sink.consume(head.tuple))
+                        break;
+                    if ((head.tuple = head.sorter.next()) != null)
+                        heads.add(head);
+                }
+            } finally {
+                for (TupleSorter sorter : sorters.all())
+                    sorter.close();
+            }
+        }
+
+        /* the next tuple of one thread's sort */
+        private static class Head {
+            final TupleSorter sorter;
+            Tuple tuple;
+
+            Head(TupleSorter sorter) throws DbException {
+                this.sorter = sorter;
+                tuple = sorter.next();
+            }
+        }
+    }
+
+    /* the pages of a heap file, a morsel of one page at a time */
+    private static class ScanSource implements Source {
+        private final SeqScan scan;
+
+        ScanSource(SeqScan scan) {
+            this.scan = scan;
+        }
+
+        public void push(final TupleSink sink, int threads)
+            throws DbException, TransactionAbortedException {
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (!(file instanceof HeapFile)) {
+                new PullSource(scan).push(sink, threads);
+                return;
+            }
+            final HeapFile heapFile = (HeapFile) file;
+            final int pages = heapFile.numPages();
+            final int poolPages = Database.getBufferPool().getNumPages();
+            final AtomicInteger nextPage = new AtomicInteger();
+            final TransactionId tid = scan.getTransactionId();
+            // each thread reads through its own ring, so that the page it
+            // replaces is one it is done with
+            final PerThread<BufferRing> rings = BufferRing.forScan(pages, poolPages) == null ? null
+                : new PerThread<BufferRing>() {
+                    BufferRing create() {
+                        return BufferRing.forScan(pages, poolPages);
+                    }
+                };
+            Morsels morsels = new Morsels() {
+                public boolean run() throws DbException, TransactionAbortedException {
+                    int pgNo = nextPage.getAndIncrement();
+                    if (pgNo >= pages)
+                        return false;
+                    PageId pid = new HeapPageId(heapFile.getId(), pgNo);
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                        tid, pid, Permissions.READ_ONLY, rings == null ? null : rings.get());
+                    try {
+                        Iterator<Tuple> it = page.iterator();
+                        while (it.hasNext()) {
+                            if (!sink.consume(it.next()))
+                                return false;
+                        }
+                    } finally {
+                        Database.getBufferPool().unpinPage(tid, pid);
+                    }
+                    return true;
+                }
+            };
+            morsels.runOn(Math.min(threads, pages));
+        }
+    }
+
+    /* state each thread pushing to a sink keeps for itself, so that they
+       need not share one lock */
+    private static abstract class PerThread<T> {
+        private final ConcurrentHashMap<Thread, T> states = new ConcurrentHashMap<Thread, T>();
+
+        abstract T create();
+
+        /* @return the calling thread's state, created on its first call */
+        T get() {
+            T state = states.get(Thread.currentThread());
+            if (state == null) {
+                state = create();
+                states.put(Thread.currentThread(), state);
+            }
+            return state;
+        }
+
+        /* @return every thread's state; call once the threads are done */
+        Collection<T> all() {
+            return states.values();
+        }
+    }
+
+    /* work split into morsels, which threads take until there are none left */
+    private static abstract class Morsels {
+        private volatile boolean stopped = false;
+        private Exception failure;
+
+        /* do the next morsel; false once there are no more */
+        abstract boolean run() throws DbException, TransactionAbortedException;
+
+        void runOn(int threads) throws DbException, TransactionAbortedException {
+            if (threads <= 1) {
+                while (run())
+                    ;
+                return;
+            }
+            Thread[] workers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Thread("pipeline worker " + i) {
+                    public void run() {
+                        work();
+                    }
+                };
+                workers[i].setDaemon(true);
+                workers[i].start();
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    stopped = true;
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted running pipeline");
+                }
+            }
+            if (failure instanceof DbException)
+                throw (DbException) failure;
+            if (failure instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) failure;
+        }
+
+        private void work() {
+            try {
+                while (!stopped && run())
+                    ;
+            } catch (Exception e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e instanceof TransactionAbortedException ? e
+                            : e instanceof DbException ? e
+                            : new DbException("pipeline worker failed: " + e);
+                    }
+                }
+            } finally {
+                // once any thread is done, the morsels are used up or the sink is full
+                stopped = true;
+            }
+        }
+    }
+}
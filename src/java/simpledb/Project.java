@@ -5,12 +5,12 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Integer> outFieldIds;
+    private int[] outFields;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -31,7 +31,10 @@ public class Project extends Operator {
     public Project(ArrayList<Integer> fieldList, Type[] types,
             DbIterator child) {
         this.child = child;
-        outFieldIds = fieldList;
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++) {
+            outFields[i] = fieldList.get(i);
+        }
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
@@ -69,17 +72,34 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+            return project(child.next());
         }
         return null;
     }
 
+    /* @return the projected fields of t */
+    Tuple project(Tuple t) {
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t.getRecordId());
+        for (int i = 0; i < td.numFields(); i++) {
+            newTuple.setField(i, t.getField(outFields[i]));
+        }
+        return newTuple;
+    }
+
+    /**
+     * Returns the child's next batch with only the projected fields; the
+     * batch shares the child batch's columns, so no values are copied.
+     * 
+     * @return The next batch, or null if there are no more tuples
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = TupleBatch.next(child);
+        if (batch == null)
+            return null;
+        return batch.project(outFields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -77,6 +77,14 @@ public class SeqScan implements DbIterator {
         this.tableAlias = tableAlias;
     }
 
+    TransactionId getTransactionId() {
+        return tid;
+    }
+
+    int getTableId() {
+        return tableid;
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
@@ -98,7 +106,7 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc(){
     	
     		//
-    		TupleDesc tempReturn = heapFile.getTupleDesc();
+    		TupleDesc tempReturn = Database.getCatalog().getTupleDesc(tableid);
     		Type[] tdTypes = new Type[tempReturn.numFields()];
 			String[] tdNames = new String[tempReturn.numFields()];
 			
@@ -129,6 +137,18 @@ public class SeqScan implements DbIterator {
         return nextTuple;
     }
 
+    /**
+     * Returns the next tuples of the table, up to {@link TupleBatch#DEFAULT_SIZE}
+     * of them, copied into the columns of a batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	TupleBatch batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+    	while(!batch.isFull() && dbFileIterator.hasNext()){
+    		batch.add(dbFileIterator.next());
+    	}
+    	return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
         dbFileIterator.close();
     }
@@ -0,0 +1,261 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children on an equality or inequality of a field
+ * of each by sorting both on their join fields and merging them.  The
+ * right (inner) child is sorted into a sequence the join can move about
+ * in; the left (outer) child is then read in order, and for each left
+ * tuple the right tuples it joins with form one range of that sequence:
+ * <ul>
+ * <li>=: the right tuples with the same key;</li>
+ * <li>&lt; and &lt;=: those from the first greater (or equal) key on;</li>
+ * <li>&gt; and &gt;=: those up to the last smaller (or equal) key.</li>
+ * </ul>
+ * The bounds of the ranges only move forward as the left keys grow, so
+ * finding them reads the right side once, and no pair of tuples is
+ * compared unless it joins.
+ * <p>
+ * A child that is an ascending {@link OrderBy} on its join field is not
+ * sorted again.  Sorting is external, as OrderBy's, once the memory budget
+ * is exceeded (see {@link #setMemoryBudget}).  The tuples returned are the
+ * same as Join's: the fields of the left tuple followed by those of the
+ * right one.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for each side's sort, in bytes of heap. */
+    public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+    private JoinPredicate jp;
+    private DbIterator outer;
+    private DbIterator inner;
+    private TupleDesc td;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    /* the sorted children; left is null if the outer child is read as is */
+    private transient TupleSorter left, right;
+
+    /* the first right tuple whose key is not below the current left key,
+       and the first whose key is above it */
+    private transient long lo, hi;
+    private transient Field lastKey;
+
+    /* the right tuple at index boundary, the next bound to place */
+    private transient TupleSorter.Cursor bounds;
+    private transient Tuple boundary;
+    private transient long boundaryPos;
+
+    /* the left tuple being joined, and the right tuples left to join it to */
+    private transient Tuple outerTuple;
+    private transient TupleSorter.Cursor matches;
+    private transient long matchEnd;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to join on; its operator must not be LIKE
+     *            or NOT_EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join cannot join on " + p.getOperator());
+        jp = p;
+        outer = child1;
+        inner = child2;
+    }
+
+    /** @return true if a sort-merge join can join on the specified operator */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /** @return true if child returns its tuples in ascending order of field */
+    public static boolean isSortedOn(DbIterator child, int field) {
+        if (!(child instanceof OrderBy))
+            return false;
+        OrderBy order = (OrderBy) child;
+        return order.isASC() && order.getOrderByField() == field;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return jp;
+    }
+
+    /**
+     * Set how much memory the tuples each side sorts in memory may take up
+     * before sorted runs are written to disk.  Takes effect the next time
+     * the join is opened.
+     *
+     * @param bytes the budget, in bytes of heap as estimated by
+     *   Tuple.heapSize for each tuple in memory
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 1)
+            throw new IllegalArgumentException("bad memory budget");
+        memoryBudget = bytes;
+    }
+
+    /** @return the field name of join field1, quantified by alias or table name */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(jp.getField1());
+    }
+
+    /** @return the field name of join field2, quantified by alias or table name */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(jp.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        outer.open();
+        inner.open();
+        right = sort(inner, jp.getField2());
+        bounds = right.cursor();
+        matches = right.cursor();
+        if (!isSortedOn(outer, jp.getField1()))
+            left = sort(outer, jp.getField1());
+        restart();
+    }
+
+    /* @return the child's tuples, sorted on field unless they already are */
+    private TupleSorter sort(DbIterator child, int field)
+        throws DbException, TransactionAbortedException {
+        TupleSorter sorter = new TupleSorter(new TupleComparator(field, true),
+            isSortedOn(child, field), memoryBudget);
+        while (child.hasNext())
+            sorter.add(child.next());
+        sorter.finish();
+        return sorter;
+    }
+
+    /* start reading the left side and placing the bounds from the first */
+    private void restart() throws DbException {
+        bounds.seek(0);
+        boundary = bounds.next();
+        boundaryPos = 0;
+        lo = hi = 0;
+        lastKey = null;
+        outerTuple = null;
+        matchEnd = 0;
+    }
+
+    public void close() {
+        super.close();
+        outer.close();
+        inner.close();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = right = null;
+        bounds = matches = null;
+        boundary = outerTuple = null;
+    }
+
+    /** Start over; nothing is sorted again. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (left != null)
+            left.rewind();
+        else
+            outer.rewind();
+        restart();
+    }
+
+    private Tuple nextOuter() throws DbException, TransactionAbortedException {
+        if (left != null)
+            return left.next();
+        return outer.hasNext() ? outer.next() : null;
+    }
+
+    /* move lo and hi up to the bounds of the right tuples with key */
+    private void placeBounds(Field key) throws DbException {
+        while (boundary != null && boundary.getField(jp.getField2()).compare(Predicate.Op.LESS_THAN, key))
+            advanceBoundary();
+        lo = boundaryPos;
+        while (boundary != null && boundary.getField(jp.getField2()).compare(Predicate.Op.EQUALS, key))
+            advanceBoundary();
+        hi = boundaryPos;
+    }
+
+    private void advanceBoundary() throws DbException {
+        boundary = bounds.next();
+        boundaryPos++;
+    }
+
+    /**
+     * Returns the next pair of tuples that satisfy the join predicate,
+     * merged into one, or null if there are no more.
+     *
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches.position() >= matchEnd) {
+            Tuple t = nextOuter();
+            if (t == null)
+                return null;
+            Field key = t.getField(jp.getField1());
+            if (lastKey == null || !key.compare(Predicate.Op.EQUALS, lastKey)) {
+                placeBounds(key);
+                lastKey = key;
+            }
+            long from, to;
+            switch (jp.getOperator()) {
+            case EQUALS:
+                from = lo;
+                to = hi;
+                break;
+            case LESS_THAN:
+                from = hi;
+                to = right.size();
+                break;
+            case LESS_THAN_OR_EQ:
+                from = lo;
+                to = right.size();
+                break;
+            case GREATER_THAN:
+                from = 0;
+                to = lo;
+                break;
+            default: // GREATER_THAN_OR_EQ
+                from = 0;
+                to = hi;
+                break;
+            }
+            if (from < to) {
+                outerTuple = t;
+                matches.seek(from);
+                matchEnd = to;
+            }
+        }
+        return Tuple.merge(getTupleDesc(), outerTuple, matches.next());
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { outer, inner };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        outer = children[0];
+        inner = children[1];
+        td = null;
+    }
+
+}
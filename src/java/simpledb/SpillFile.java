@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * input does not fit in memory, and reads back, in the order written, once
+ * or several times.  The file is deleted by {@link #delete}, or when the
+ * JVM exits if the operator never gets that far.
+ * <p>
+ * All the tuples of a file have the same TupleDesc, so they are the same
+ * size on disk, and a reader can start at any of them.
+ */
+class SpillFile {
+
+    private final File file;
+    private DataOutputStream out;
+    private TupleDesc td;
+    private long count = 0;
+
+    /* the reader used by rewind and next, and every reader still open */
+    private Reader reader;
+    private final ArrayList<Reader> readers = new ArrayList<Reader>();
+
+    SpillFile() throws DbException {
+        try {
+            file = File.createTempFile("simpledb", ".spill");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /** Append a tuple; all the tuples of a file must have the same TupleDesc. */
+    void write(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is being read");
+        if (td == null)
+            td = t.getTupleDesc();
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        count++;
+    }
+
+    /** @return the number of tuples written */
+    long size() {
+        return count;
+    }
+
+    /**
+     * Start reading the file from the beginning; no more tuples may be
+     * written.
+     */
+    void rewind() throws DbException {
+        if (reader == null)
+            reader = reader(0);
+        else
+            reader.seek(0);
+    }
+
+    /** @return the next tuple, or null after the last one */
+    Tuple next() throws DbException {
+        if (reader == null)
+            rewind();
+        return reader.next();
+    }
+
+    /**
+     * @return a reader of the tuples from the one at index on, independent
+     *   of other readers; no more tuples may be written
+     */
+    Reader reader(long index) throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        Reader r = new Reader();
+        readers.add(r);
+        r.seek(index);
+        return r;
+    }
+
+    /** Close and delete the file; it cannot be used afterwards. */
+    void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // deleting it anyway
+        }
+        out = null;
+        for (Reader r : new ArrayList<Reader>(readers))
+            r.close();
+        reader = null;
+        file.delete();
+    }
+
+    /** Reads the tuples of the file in order, from any of them on. */
+    class Reader {
+        private FileInputStream fis;
+        private DataInputStream in;
+        private long position;
+
+        /** Continue reading at the tuple at index. */
+        void seek(long index) throws DbException {
+            try {
+                if (fis == null)
+                    fis = new FileInputStream(file);
+                fis.getChannel().position(td == null ? 0 : index * td.getSize());
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            in = new DataInputStream(new BufferedInputStream(fis));
+            position = index;
+        }
+
+        /** @return the index of the tuple next returns */
+        long position() {
+            return position;
+        }
+
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws DbException {
+            if (position >= count)
+                return null;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            position++;
+            return t;
+        }
+
+        void close() {
+            try {
+                if (fis != null)
+                    fis.close();
+            } catch (IOException e) {
+                // nothing left to read anyway
+            }
+            fis = null;
+            in = null;
+            readers.remove(this);
+        }
+    }
+}
@@ -9,26 +9,62 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
+    private boolean asyncCommit = false;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly true if the transaction only reads: it then reads a
+     *   snapshot of the database taken when it starts, without locking
+     * @see BufferPool#beginSnapshot
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
-    /** Start the transaction running */
+    /**
+     * Start the transaction running.  Nothing is logged yet: the log gets
+     * the transaction's BEGIN record with its first change, so one that
+     * only reads never writes to the log.
+     */
     public void start() {
         started = true;
-        try {
-            Database.getLogFile().logXactionBegin(tid);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        if (readOnly)
+            Database.getBufferPool().beginSnapshot(tid);
     }
 
     public TransactionId getId() {
         return tid;
     }
 
+    /** @return true if this transaction reads from a snapshot */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Choose whether commit waits for the commit record to reach disk.  An
+     * asynchronous commit returns once the record is in the log buffer; the
+     * log writer forces it within the log's async commit delay, and the
+     * transaction's pages are written later, after the log.  A crash in
+     * between loses the transaction as a whole, never part of it.
+     *
+     * @see LogFile#setAsyncCommitDelay
+     */
+    public void setAsyncCommit(boolean asyncCommit) {
+        this.asyncCommit = asyncCommit;
+    }
+
+    /** @return true if commit does not wait for the log to be forced */
+    public boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -44,8 +80,13 @@ public class Transaction {
 
         if (started) {
             //write commit / abort records
-            if (abort) {
+            if (!Database.getLogFile().hasBegun(tid)) {
+                //nothing was changed: no records to write, no pages to flush
+            } else if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
+            } else if (asyncCommit) {
+                //the pages stay in the buffer pool until the log is forced
+                Database.getLogFile().logCommit(tid, false);
             } else {
                 //write all the dirty pages for this transaction out
                 Database.getBufferPool().flushPages(tid);
@@ -53,7 +94,7 @@ public class Transaction {
             }
 
             try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                Database.getBufferPool().transactionComplete(tid, !abort, !asyncCommit); // release locks
             } catch (IOException e) {
                 e.printStackTrace();
             }
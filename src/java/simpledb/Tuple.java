@@ -114,6 +114,46 @@ public class Tuple implements Serializable {
         return tdVector.iterator();
     }
     
+    /**
+     * @return a tuple of the fields of left followed by those of right, as
+     *         the join operators return them
+     * @param td the TupleDesc of the result, which must be the merge of
+     *         left's and right's
+     */
+    static Tuple merge(TupleDesc td, Tuple left, Tuple right) {
+        Tuple t = new Tuple(td);
+        int n = left.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < right.getTupleDesc().numFields(); i++)
+            t.setField(n + i, right.getField(i));
+        return t;
+    }
+
+    /* estimated heap bytes of a Tuple with its Vector of fields, and of
+       the reference to it from the list it is kept in */
+    private static final long TUPLE_HEAP_SIZE = 96;
+
+    /* of an IntField, and of a StringField with its String apart from the
+       characters, each with the reference to it from the Vector */
+    private static final long INT_FIELD_HEAP_SIZE = 24;
+    private static final long STRING_FIELD_HEAP_SIZE = 64;
+
+    /**
+     * @return an estimate of the heap bytes this tuple takes up, for the
+     *         operators that keep tuples in memory up to a budget
+     */
+    long heapSize() {
+        long size = TUPLE_HEAP_SIZE;
+        for (Field f : tdVector) {
+            if (f instanceof StringField)
+                size += STRING_FIELD_HEAP_SIZE + 2 * ((StringField) f).getValue().length();
+            else
+                size += INT_FIELD_HEAP_SIZE;
+        }
+        return size;
+    }
+
     /**
      * reset the TupleDesc of thi tuple
      * */
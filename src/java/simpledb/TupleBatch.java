@@ -0,0 +1,353 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * TupleBatch holds a batch of tuples column by column: the values of each
+ * integer field in an int array, and of each string field in a String
+ * array.  Operators that work on batches (see {@link BatchIterator}) loop
+ * over these arrays instead of calling through Tuple and Field for every
+ * value.
+ * <p>
+ * A batch may have a selection vector, the indexes of the rows that are
+ * still in it.  Filtering a batch only shortens its selection vector, and
+ * projecting one shares its columns, so neither copies any values.  Rows
+ * are numbered two ways: a live row i (0 &lt;= i &lt; {@link #size}) is
+ * stored at row {@link #row row(i)} of the columns.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+
+    /* the values of field i are in ints[i] or strings[i], by its type */
+    private final int[][] ints;
+    private final String[][] strings;
+    private final RecordId[] rids;
+
+    /* the rows stored, and the rows of those still in the batch; all of
+       them if selection is null */
+    private int rows = 0;
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Create an empty batch.
+     *
+     * @param td the schema of the rows
+     * @param capacity the most rows the batch can store
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ints = new int[n][];
+        strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                strings[i] = new String[capacity];
+        }
+        rids = new RecordId[capacity];
+    }
+
+    /* a batch over the columns of another */
+    private TupleBatch(TupleDesc td, TupleBatch from, int[][] ints, String[][] strings) {
+        this.td = td;
+        this.capacity = from.capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.rids = from.rids;
+        this.rows = from.rows;
+        this.selection = from.selection;
+        this.selected = from.selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows in the batch */
+    public int size() {
+        return selection == null ? rows : selected;
+    }
+
+    /** @return the row of the columns that holds live row i */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /** @return the most rows the batch can store */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return rows >= capacity;
+    }
+
+    /** @return the values of integer field i, indexed by {@link #row} */
+    public int[] getInts(int i) {
+        return ints[i];
+    }
+
+    /** @return the values of string field i, indexed by {@link #row} */
+    public String[] getStrings(int i) {
+        return strings[i];
+    }
+
+    /** @return the RecordId of the tuple stored at row, or null if none */
+    public RecordId getRecordId(int row) {
+        return rids[row];
+    }
+
+    /** Add a tuple to the batch; it must not be full or filtered. */
+    public void add(Tuple t) {
+        checkAppend();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][rows] = ((IntField) t.getField(i)).getValue();
+            else
+                strings[i][rows] = ((StringField) t.getField(i)).getValue();
+        }
+        rids[rows] = t.getRecordId();
+        rows++;
+    }
+
+    /**
+     * Add the fields stored at row lrow of left followed by those at rrow
+     * of right, as Join merges tuples.  This batch must not be full or
+     * filtered.
+     */
+    public void addJoined(TupleBatch left, int lrow, TupleBatch right, int rrow) {
+        checkAppend();
+        int n = left.ints.length;
+        for (int i = 0; i < n; i++)
+            copy(left, i, lrow, i);
+        for (int i = 0; i < right.ints.length; i++)
+            copy(right, i, rrow, n + i);
+        rids[rows] = null;
+        rows++;
+    }
+
+    /** Add the row of from stored at row, which must have this batch's schema. */
+    public void add(TupleBatch from, int row) {
+        checkAppend();
+        for (int i = 0; i < ints.length; i++)
+            copy(from, i, row, i);
+        rids[rows] = from.rids[row];
+        rows++;
+    }
+
+    private void copy(TupleBatch from, int field, int row, int to) {
+        if (ints[to] != null)
+            ints[to][rows] = from.ints[field][row];
+        else
+            strings[to][rows] = from.strings[field][row];
+    }
+
+    private void checkAppend() {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (selection != null)
+            throw new IllegalStateException("cannot add to a filtered batch");
+    }
+
+    /** Remove every row, and the selection vector. */
+    public void clear() {
+        rows = 0;
+        selection = null;
+        selected = 0;
+    }
+
+    /**
+     * Keep only the rows whose field satisfies op with operand.  The
+     * comparisons are the same as {@link Field#compare}'s.
+     */
+    public void filter(int field, Predicate.Op op, Field operand) {
+        int n = size();
+        int[] keep = new int[n];
+        int kept = 0;
+        if (ints[field] != null) {
+            int[] values = ints[field];
+            int v = ((IntField) operand).getValue();
+            for (int i = 0; i < n; i++) {
+                int r = row(i);
+                if (compare(op, values[r], v))
+                    keep[kept++] = r;
+            }
+        } else {
+            String[] values = strings[field];
+            String v = ((StringField) operand).getValue();
+            for (int i = 0; i < n; i++) {
+                int r = row(i);
+                if (compare(op, values[r], v))
+                    keep[kept++] = r;
+            }
+        }
+        selection = keep;
+        selected = kept;
+    }
+
+    /**
+     * @return a batch of the same rows with only the specified fields, in
+     *   that order; it shares this batch's columns
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        int[][] pints = new int[fields.length][];
+        String[][] pstrings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pints[i] = ints[fields[i]];
+            pstrings[i] = strings[fields[i]];
+        }
+        return new TupleBatch(td, this, pints, pstrings);
+    }
+
+    /** @return live row i as a Tuple */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int f = 0; f < ints.length; f++) {
+            if (ints[f] != null)
+                t.setField(f, new IntField(ints[f][r]));
+            else
+                t.setField(f, new StringField(strings[f][r], Type.STRING_LEN));
+        }
+        t.setRecordId(rids[r]);
+        return t;
+    }
+
+    /** @return true if field of left at lrow and field of right at rrow satisfy op */
+    static boolean compare(Predicate.Op op, TupleBatch left, int lfield, int lrow,
+            TupleBatch right, int rfield, int rrow) {
+        if (left.ints[lfield] != null)
+            return compare(op, left.ints[lfield][lrow], right.ints[rfield][rrow]);
+        return compare(op, left.strings[lfield][lrow], right.strings[rfield][rrow]);
+    }
+
+    /** @return a op b, as IntField compares them */
+    static boolean compare(Predicate.Op op, int a, int b) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return a == b;
+        case NOT_EQUALS:
+            return a != b;
+        case GREATER_THAN:
+            return a > b;
+        case GREATER_THAN_OR_EQ:
+            return a >= b;
+        case LESS_THAN:
+            return a < b;
+        case LESS_THAN_OR_EQ:
+            return a <= b;
+        }
+        return false;
+    }
+
+    /** @return a op b, as StringField compares them */
+    static boolean compare(Predicate.Op op, String a, String b) {
+        if (op == Predicate.Op.LIKE)
+            return a.indexOf(b) >= 0;
+        int cmp = a.compareTo(b);
+        switch (op) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        }
+        return false;
+    }
+
+    /**
+     * Read the next batch from any iterator: a {@link BatchIterator}
+     * returns its own, and the tuples of any other are copied into one.
+     *
+     * @return the next batch of at least one row, or null if there are no
+     *   more tuples
+     */
+    public static TupleBatch next(DbIterator it) throws DbException,
+            TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        return fill(it, new TupleBatch(it.getTupleDesc(), DEFAULT_SIZE));
+    }
+
+    /**
+     * Add tuples of it to batch until it is full or it has no more.
+     *
+     * @return batch, or null if no tuples were added
+     */
+    static TupleBatch fill(DbIterator it, TupleBatch batch) throws DbException,
+            TransactionAbortedException {
+        while (!batch.isFull() && it.hasNext())
+            batch.add(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    /**
+     * Read the tuples of a batch iterator's batches one at a time, for
+     * operators that take tuples.
+     */
+    public static class Rows implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final BatchIterator child;
+        private transient TupleBatch batch;
+        private transient int pos;
+
+        public Rows(BatchIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            batch = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (batch == null || pos >= batch.size()) {
+                batch = child.nextBatch();
+                pos = 0;
+                if (batch == null)
+                    return false;
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return batch.getTuple(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            batch = null;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+            batch = null;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+/**
+ * TupleMatcher is a Predicate compiled for the type of the field it
+ * compares.  Predicate.filter goes through Field.compare, which switches
+ * on the operator for every tuple; a matcher is chosen once, when the
+ * plan is opened, from a class per type and operator, so each test is a
+ * single comparison of two values that the JIT can inline.  Comparisons
+ * it has no class for fall back to the Predicate.
+ * <p>
+ * {@link Pair} does the same for a JoinPredicate.
+ */
+abstract class TupleMatcher {
+
+    /** @return true if t satisfies the predicate */
+    abstract boolean matches(Tuple t);
+
+    /** @return a matcher for p */
+    static TupleMatcher compile(Predicate p) {
+        int f = p.getField();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(f, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(f, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(f, v);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(f, v);
+            case LESS_THAN:
+                return new IntLessThan(f, v);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(f, v);
+            }
+        }
+        if (operand instanceof StringField && p.getOp() == Predicate.Op.EQUALS)
+            return new StringEquals(f, ((StringField) operand).getValue());
+        return new Generic(p);
+    }
+
+    private static int intAt(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static final class IntEquals extends TupleMatcher {
+        private final int field, value;
+
+        IntEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) == value;
+        }
+    }
+
+    private static final class IntNotEquals extends TupleMatcher {
+        private final int field, value;
+
+        IntNotEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) != value;
+        }
+    }
+
+    private static final class IntGreaterThan extends TupleMatcher {
+        private final int field, value;
+
+        IntGreaterThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) > value;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends TupleMatcher {
+        private final int field, value;
+
+        IntGreaterThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) >= value;
+        }
+    }
+
+    private static final class IntLessThan extends TupleMatcher {
+        private final int field, value;
+
+        IntLessThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) < value;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends TupleMatcher {
+        private final int field, value;
+
+        IntLessThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return intAt(t, field) <= value;
+        }
+    }
+
+    private static final class StringEquals extends TupleMatcher {
+        private final int field;
+        private final String value;
+
+        StringEquals(int field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        boolean matches(Tuple t) {
+            return ((StringField) t.getField(field)).getValue().equals(value);
+        }
+    }
+
+    private static final class Generic extends TupleMatcher {
+        private final Predicate p;
+
+        Generic(Predicate p) {
+            this.p = p;
+        }
+
+        boolean matches(Tuple t) {
+            return p.filter(t);
+        }
+    }
+
+    /**
+     * A JoinPredicate compiled for the type of the fields it compares.
+     */
+    static abstract class Pair {
+
+        /** @return true if t1 and t2 satisfy the predicate */
+        abstract boolean matches(Tuple t1, Tuple t2);
+
+        /**
+         * @return a matcher for jp
+         * @param type the type of the fields jp compares
+         */
+        static Pair compile(JoinPredicate jp, Type type) {
+            int f1 = jp.getField1();
+            int f2 = jp.getField2();
+            if (type == Type.INT_TYPE) {
+                switch (jp.getOperator()) {
+                case EQUALS:
+                case LIKE:
+                    return new IntEqualsPair(f1, f2);
+                case NOT_EQUALS:
+                    return new IntNotEqualsPair(f1, f2);
+                case GREATER_THAN:
+                    return new IntGreaterThanPair(f1, f2);
+                case GREATER_THAN_OR_EQ:
+                    return new IntGreaterThanOrEqPair(f1, f2);
+                case LESS_THAN:
+                    return new IntLessThanPair(f1, f2);
+                case LESS_THAN_OR_EQ:
+                    return new IntLessThanOrEqPair(f1, f2);
+                }
+            }
+            return new GenericPair(jp);
+        }
+    }
+
+    private static final class IntEqualsPair extends Pair {
+        private final int f1, f2;
+
+        IntEqualsPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) == intAt(t2, f2);
+        }
+    }
+
+    private static final class IntNotEqualsPair extends Pair {
+        private final int f1, f2;
+
+        IntNotEqualsPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) != intAt(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThanPair extends Pair {
+        private final int f1, f2;
+
+        IntGreaterThanPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) > intAt(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThanOrEqPair extends Pair {
+        private final int f1, f2;
+
+        IntGreaterThanOrEqPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) >= intAt(t2, f2);
+        }
+    }
+
+    private static final class IntLessThanPair extends Pair {
+        private final int f1, f2;
+
+        IntLessThanPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) < intAt(t2, f2);
+        }
+    }
+
+    private static final class IntLessThanOrEqPair extends Pair {
+        private final int f1, f2;
+
+        IntLessThanOrEqPair(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return intAt(t1, f1) <= intAt(t2, f2);
+        }
+    }
+
+    private static final class GenericPair extends Pair {
+        private final JoinPredicate jp;
+
+        GenericPair(JoinPredicate jp) {
+            this.jp = jp;
+        }
+
+        boolean matches(Tuple t1, Tuple t2) {
+            return jp.filter(t1, t2);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package simpledb;
+
+/**
+ * TupleSink consumes the tuples a {@link Pipeline} pushes to it.  A sink
+ * given to a pipeline run on several threads is called from all of them
+ * at once, so it must be thread-safe.
+ */
+public interface TupleSink {
+
+  /**
+   * Consume the next tuple.
+   * @return false if the sink wants no more tuples
+   */
+  public boolean consume(Tuple t) throws DbException, TransactionAbortedException;
+}
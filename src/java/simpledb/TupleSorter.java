@@ -0,0 +1,210 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleSorter sorts tuples that may not fit in memory.  Tuples are kept in
+ * memory up to a budget; each time the budget is exceeded they are sorted
+ * and written to a spill file as a run, and the runs are merged when the
+ * tuples are read back.  More than MERGE_FANIN runs are first merged into
+ * fewer, longer ones, so the final merge reads a bounded number of files.
+ */
+class TupleSorter {
+
+    /** The most runs merged at once. */
+    static final int MERGE_FANIN = 64;
+
+    private final Comparator<Tuple> order;
+    private final boolean presorted;
+    private final long memoryBudget;
+
+    private ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+    private long bytes = 0;
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private long size = 0;
+
+    /* reading in order: the buffer's position, or the merge of the runs */
+    private int bufferPos;
+    private PriorityQueue<Head> heads;
+
+    /**
+     * @param order the order to sort in
+     * @param presorted true if the tuples are added in order already, so
+     *   they need not be sorted again
+     * @param memoryBudget how much memory the tuples kept in memory may
+     *   take up, in bytes of heap as estimated by Tuple.heapSize
+     */
+    TupleSorter(Comparator<Tuple> order, boolean presorted, long memoryBudget) {
+        this.order = order;
+        this.presorted = presorted;
+        this.memoryBudget = memoryBudget;
+    }
+
+    void add(Tuple t) throws DbException {
+        buffer.add(t);
+        bytes += t.heapSize();
+        size++;
+        if (bytes > memoryBudget)
+            spillBuffer();
+    }
+
+    /* sort the buffer and write it out as a run */
+    private void spillBuffer() throws DbException {
+        if (!presorted)
+            Collections.sort(buffer, order);
+        SpillFile run = new SpillFile();
+        for (Tuple t : buffer)
+            run.write(t);
+        runs.add(run);
+        buffer = new ArrayList<Tuple>();
+        bytes = 0;
+    }
+
+    /** Sort what has been added; no more tuples may be added. */
+    void finish() throws DbException {
+        if (!runs.isEmpty() && !buffer.isEmpty())
+            spillBuffer();
+        else if (!presorted)
+            Collections.sort(buffer, order);
+        while (runs.size() > MERGE_FANIN)
+            mergeRuns(MERGE_FANIN);
+        rewind();
+    }
+
+    /** @return the number of tuples added */
+    long size() {
+        return size;
+    }
+
+    /** @return the number of runs written to disk */
+    int getRunCount() {
+        return runs.size();
+    }
+
+    /* replace the first n runs with one run of their tuples, in order */
+    private void mergeRuns(int n) throws DbException {
+        ArrayList<SpillFile> merging = new ArrayList<SpillFile>(runs.subList(0, n));
+        runs.subList(0, n).clear();
+        PriorityQueue<Head> queue = openHeads(merging);
+        SpillFile merged = new SpillFile();
+        Tuple t;
+        while ((t = poll(queue)) != null)
+            merged.write(t);
+        for (SpillFile run : merging)
+            run.delete();
+        runs.add(merged);
+    }
+
+    /** Read the tuples from the first again. */
+    void rewind() throws DbException {
+        if (heads != null) {
+            for (Head head : heads)
+                head.reader.close();
+        }
+        bufferPos = 0;
+        heads = runs.isEmpty() ? null : openHeads(runs);
+    }
+
+    /** @return the next tuple in order, or null after the last one */
+    Tuple next() throws DbException {
+        if (heads != null)
+            return poll(heads);
+        return bufferPos < buffer.size() ? buffer.get(bufferPos++) : null;
+    }
+
+    /**
+     * @return a cursor over the sorted tuples that can move to any of
+     *   them; if the tuples are on disk they are first merged into one run
+     */
+    Cursor cursor() throws DbException {
+        if (runs.size() > 1) {
+            mergeRuns(runs.size());
+            rewind();
+        }
+        if (!runs.isEmpty())
+            return new Cursor(runs.get(0).reader(0));
+        return new Cursor(null);
+    }
+
+    /** Delete the runs. */
+    void close() {
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        buffer = new ArrayList<Tuple>();
+        heads = null;
+    }
+
+    /* the next tuple of a run being merged */
+    private static class Head {
+        Tuple tuple;
+        final SpillFile.Reader reader;
+
+        Head(Tuple tuple, SpillFile.Reader reader) {
+            this.tuple = tuple;
+            this.reader = reader;
+        }
+    }
+
+    private PriorityQueue<Head> openHeads(List<SpillFile> files) throws DbException {
+        PriorityQueue<Head> queue = new PriorityQueue<Head>(Math.max(1, files.size()),
+            new Comparator<Head>() {
+                public int compare(Head h1, Head h2) {
+                    return order.compare(h1.tuple, h2.tuple);
+                }
+            });
+        for (SpillFile file : files) {
+            SpillFile.Reader reader = file.reader(0);
+            Tuple t = reader.next();
+            if (t != null)
+                queue.add(new Head(t, reader));
+            else
+                reader.close();
+        }
+        return queue;
+    }
+
+    /* @return the least tuple of the runs in queue, or null if none is left */
+    private static Tuple poll(PriorityQueue<Head> queue) throws DbException {
+        Head head = queue.poll();
+        if (head == null)
+            return null;
+        Tuple t = head.tuple;
+        head.tuple = head.reader.next();
+        if (head.tuple != null)
+            queue.add(head);
+        else
+            head.reader.close();
+        return t;
+    }
+
+    /** Reads the sorted tuples from any position on. */
+    class Cursor {
+        private final SpillFile.Reader reader;
+        private int index;
+
+        private Cursor(SpillFile.Reader reader) {
+            this.reader = reader;
+        }
+
+        /** Continue reading at the tuple at index. */
+        void seek(long index) throws DbException {
+            if (reader != null)
+                reader.seek(index);
+            else
+                this.index = (int) index;
+        }
+
+        /** @return the index of the tuple next returns */
+        long position() {
+            return reader != null ? reader.position() : index;
+        }
+
+        /** @return the next tuple, or null after the last one */
+        Tuple next() throws DbException {
+            if (reader != null)
+                return reader.next();
+            return index < buffer.size() ? buffer.get(index++) : null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * VersionStore keeps superseded committed images of pages for snapshot
+ * readers.  Before a writer's changes to a page reach disk, the page's last
+ * committed image is saved here as a pending version; when the writer
+ * commits, the version is stamped with the commit's sequence number, and
+ * it stays visible to every snapshot taken before that commit.  A snapshot
+ * taken at sequence number s reads the oldest version stamped after s, or
+ * the page's current committed image if there is none.
+ * <p>
+ * Versions are dropped once no running snapshot is old enough to need
+ * them.
+ * <p>
+ * Not thread safe: the BufferPool guards it with its own monitor.
+ */
+class VersionStore {
+
+    /** A committed page image, visible to snapshots taken before validUntil. */
+    private static class Version {
+        final Page image;
+        long validUntil = Long.MAX_VALUE;
+
+        Version(Page image) {
+            this.image = image;
+        }
+    }
+
+    /* versions of each page, oldest first; only the last may be pending */
+    private final HashMap<PageId, ArrayList<Version>> versions =
+        new HashMap<PageId, ArrayList<Version>>();
+
+    /* versions saved for each running writer, not yet stamped */
+    private final HashMap<TransactionId, ArrayList<Version>> pending =
+        new HashMap<TransactionId, ArrayList<Version>>();
+
+    /**
+     * Save the committed image of a page that writer is about to overwrite
+     * on disk.  Only the first image saved per writer and page is kept.
+     */
+    void save(TransactionId writer, PageId pid, Page image) {
+        ArrayList<Version> chain = versions.get(pid);
+        if (chain == null) {
+            chain = new ArrayList<Version>();
+            versions.put(pid, chain);
+        } else if (chain.get(chain.size() - 1).validUntil == Long.MAX_VALUE) {
+            return;
+        }
+        Version version = new Version(image);
+        chain.add(version);
+
+        ArrayList<Version> mine = pending.get(writer);
+        if (mine == null) {
+            mine = new ArrayList<Version>();
+            pending.put(writer, mine);
+        }
+        mine.add(version);
+    }
+
+    /** Stamp the versions writer saved with its commit sequence number. */
+    void commit(TransactionId writer, long seq) {
+        ArrayList<Version> mine = pending.remove(writer);
+        if (mine == null)
+            return;
+        for (Version version : mine)
+            version.validUntil = seq;
+    }
+
+    /** Forget the versions an aborted writer saved. */
+    void abort(TransactionId writer) {
+        ArrayList<Version> mine = pending.remove(writer);
+        if (mine == null)
+            return;
+        Iterator<ArrayList<Version>> chains = versions.values().iterator();
+        while (chains.hasNext()) {
+            ArrayList<Version> chain = chains.next();
+            chain.removeAll(mine);
+            if (chain.isEmpty())
+                chains.remove();
+        }
+    }
+
+    /**
+     * @return the image of the page seen by a snapshot taken at the
+     *   specified sequence number, or null if that is the page's current
+     *   committed image
+     */
+    Page find(PageId pid, long snapshot) {
+        ArrayList<Version> chain = versions.get(pid);
+        if (chain == null)
+            return null;
+        for (Version version : chain) {
+            if (version.validUntil > snapshot)
+                return version.image;
+        }
+        return null;
+    }
+
+    /** Drop the stamped versions no snapshot at or after oldest can see. */
+    void prune(long oldest) {
+        Iterator<Map.Entry<PageId, ArrayList<Version>>> it = versions.entrySet().iterator();
+        while (it.hasNext()) {
+            ArrayList<Version> chain = it.next().getValue();
+            while (!chain.isEmpty() && chain.get(0).validUntil <= oldest)
+                chain.remove(0);
+            if (chain.isEmpty())
+                it.remove();
+        }
+    }
+
+    /** @return the number of page versions held */
+    int size() {
+        int n = 0;
+        for (ArrayList<Version> chain : versions.values())
+            n += chain.size();
+        return n;
+    }
+}
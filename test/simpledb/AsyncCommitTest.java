@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AsyncCommitTest extends SimpleDbTestBase {
+
+	private HeapFile table;
+	private HeapPageId pid;
+	private BufferPool bp;
+	private LogFile log;
+
+	@Before public void createTable() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		pid = new HeapPageId(table.getId(), 0);
+		bp = Database.getBufferPool();
+		log = Database.getLogFile();
+	}
+
+	private int count(HeapPage page) {
+		Iterator<Tuple> it = page.iterator();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+
+	private Transaction insert(int value, boolean async) throws Exception {
+		Transaction t = new Transaction();
+		t.setAsyncCommit(async);
+		t.start();
+		bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { value, value }));
+		return t;
+	}
+
+	/**
+	 * An asynchronous commit neither forces the log nor writes its pages,
+	 * but its changes are visible at once.
+	 */
+	@Test public void commitDoesNotForce() throws Exception {
+		log.setAsyncCommitDelay(60000);
+		int forces = log.getTotalForces();
+		insert(1, true).commit();
+
+		assertEquals(forces, log.getTotalForces());
+		assertTrue(log.getDurableLsn() < log.getEndLsn());
+		assertEquals(10, count((HeapPage) table.readPage(pid)));
+		assertTrue(bp.getDirtyPageTable().containsKey(pid));
+
+		TransactionId reader = new TransactionId();
+		assertEquals(11, count((HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY)));
+		bp.transactionComplete(reader);
+	}
+
+	/**
+	 * The log writer forces an asynchronous commit within the delay.
+	 */
+	@Test public void forcedWithinDelay() throws Exception {
+		log.setAsyncCommitDelay(50);
+		insert(1, true).commit();
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (log.getDurableLsn() < log.getEndLsn() && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(log.getEndLsn(), log.getDurableLsn());
+	}
+
+	/**
+	 * Rolling back a transaction that changed a page committed
+	 * asynchronously keeps the committed change.
+	 */
+	@Test public void abortKeepsAsyncCommit() throws Exception {
+		log.setAsyncCommitDelay(60000);
+		insert(1, true).commit();
+		insert(2, false).abort();
+
+		TransactionId reader = new TransactionId();
+		assertEquals(11, count((HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY)));
+		bp.transactionComplete(reader);
+		assertEquals(11, count((HeapPage) table.readPage(pid)));
+	}
+
+	/**
+	 * Once its commit record is forced, recovery redoes an asynchronous
+	 * commit whose pages never reached disk.
+	 */
+	@Test public void recoveryRedoesAsyncCommit() throws Exception {
+		log.setAsyncCommitDelay(60000);
+		insert(1, true).commit();
+		log.force();
+		assertEquals(10, count((HeapPage) table.readPage(pid)));
+
+		new LogFile(log.logFile).recover();
+		assertEquals(11, count((HeapPage) table.readPage(pid)));
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(AsyncCommitTest.class);
+	}
+}
@@ -2,13 +2,133 @@ package simpledb;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+
 import org.junit.Test;
 
-public class BufferPoolTest {
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
 
 	@Test
 	public void test() {
 		fail("Not yet implemented");
 	}
 
+	private TestUtil.InstrumentedHeapFile createTable(int pages) throws Exception {
+		File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * pages, 1000, null, null);
+		TestUtil.InstrumentedHeapFile table = new TestUtil.InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+		Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+		return table;
+	}
+
+	/* read a page without keeping it pinned */
+	private void read(BufferPool bp, TransactionId tid, HeapFile table, int pgNo) throws Exception {
+		PageId pid = new HeapPageId(table.getId(), pgNo);
+		bp.getPage(tid, pid, Permissions.READ_ONLY);
+		bp.unpinPage(tid, pid);
+	}
+
+	/**
+	 * Unit test for BufferPool.resize()
+	 */
+	@Test
+	public void resize() throws Exception {
+		TestUtil.InstrumentedHeapFile table = createTable(8);
+		BufferPool bp = Database.resetBufferPool(8);
+		TransactionId tid = new TransactionId();
+
+		for (int i = 0; i < 8; i++)
+			read(bp, tid, table, i);
+		assertEquals(8, table.readCount);
+
+		// shrinking keeps the most recently used pages
+		bp.resize(2);
+		assertEquals(2, bp.getNumPages());
+		table.readCount = 0;
+		read(bp, tid, table, 7);
+		read(bp, tid, table, 6);
+		assertEquals(0, table.readCount);
+		read(bp, tid, table, 0);
+		assertEquals(1, table.readCount);
+
+		// growing lets the pool cache the whole table again
+		bp.resize(8);
+		for (int i = 0; i < 8; i++)
+			read(bp, tid, table, i);
+		table.readCount = 0;
+		for (int i = 0; i < 8; i++)
+			read(bp, tid, table, i);
+		assertEquals(0, table.readCount);
+	}
+
+	/**
+	 * Unit test for BufferPool.getPage() pinning and BufferPool.pinPage()
+	 */
+	@Test
+	public void pinnedPagesAreNotEvicted() throws Exception {
+		TestUtil.InstrumentedHeapFile table = createTable(4);
+		BufferPool bp = Database.resetBufferPool(2);
+		TransactionId tid = new TransactionId();
+		PageId pinned = new HeapPageId(table.getId(), 0);
+
+		PageHandle handle = bp.pinPage(tid, pinned, Permissions.READ_ONLY);
+		assertTrue(bp.isPinned(pinned));
+		for (int i = 1; i < 4; i++)
+			read(bp, tid, table, i);
+		table.readCount = 0;
+		read(bp, tid, table, 0);
+		assertEquals(0, table.readCount);
+
+		handle.close();
+		assertFalse(bp.isPinned(pinned));
+		for (int i = 1; i < 4; i++)
+			read(bp, tid, table, i);
+		table.readCount = 0;
+		read(bp, tid, table, 0);
+		assertEquals(1, table.readCount);
+	}
+
+	/**
+	 * Unit test for BufferPool.flushPages()
+	 */
+	@Test
+	public void flushPages() throws Exception {
+		TestUtil.InstrumentedHeapFile table = createTable(4);
+		BufferPool bp = Database.resetBufferPool(8);
+		TransactionId tid = new TransactionId();
+		TransactionId other = new TransactionId();
+
+		Page[] pages = new Page[4];
+		for (int i = 0; i < 4; i++)
+			pages[i] = bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_WRITE);
+		pages[3].markDirty(true, tid);
+		pages[0].markDirty(true, tid);
+		pages[1].markDirty(true, tid);
+		pages[2].markDirty(true, other);
+
+		bp.flushPages(tid);
+		assertNull(pages[0].isDirty());
+		assertNull(pages[1].isDirty());
+		assertNull(pages[3].isDirty());
+		assertEquals(other, pages[2].isDirty());
+		for (int i = 0; i < 4; i++) {
+			assertArrayEquals(pages[i].getPageData(),
+					table.readPage(new HeapPageId(table.getId(), i)).getPageData());
+		}
+	}
+
+	/**
+	 * getPage should fail rather than evict a page that is still in use.
+	 */
+	@Test(expected = DbException.class)
+	public void allPagesPinned() throws Exception {
+		TestUtil.InstrumentedHeapFile table = createTable(3);
+		BufferPool bp = Database.resetBufferPool(2);
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < 3; i++)
+			bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+	}
+
 }
@@ -0,0 +1,107 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferRingTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for BufferRing.forScan()
+     */
+    @Test public void forScan() {
+        assertNull(BufferRing.forScan(10, BufferPool.DEFAULT_PAGES));
+        BufferRing ring = BufferRing.forScan(1000, BufferPool.DEFAULT_PAGES);
+        assertNotNull(ring);
+        assertTrue(ring.size() < BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Unit test for BufferRing.victim() and BufferRing.add()
+     */
+    @Test public void replacesOldestFrame() {
+        BufferRing ring = new BufferRing(2);
+        assertNull(ring.victim());
+        ring.add(new HeapPageId(1, 0));
+        assertNull(ring.victim());
+        ring.add(new HeapPageId(1, 1));
+        assertEquals(new HeapPageId(1, 0), ring.victim());
+        ring.add(new HeapPageId(1, 2));
+        assertEquals(new HeapPageId(1, 1), ring.victim());
+    }
+
+    /**
+     * A scan over a table much larger than the pool should not push other
+     * tables' pages out of it.
+     */
+    @Test public void largeScanKeepsOtherPagesCached() throws Exception {
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, null);
+        TestUtil.InstrumentedHeapFile hot = new TestUtil.InstrumentedHeapFile(hotFile, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+
+        TransactionId tid = new TransactionId();
+        PageId hotPid = new HeapPageId(hot.getId(), 0);
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+        assertEquals(1, hot.readCount);
+
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 64, count);
+
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+        assertEquals(1, hot.readCount);
+    }
+
+    /**
+     * The same holds for a scan pushed through a Pipeline on several
+     * threads.
+     */
+    @Test public void pipelinedScanKeepsOtherPagesCached() throws Exception {
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(2, 10, 1000, null, null);
+        TestUtil.InstrumentedHeapFile hot = new TestUtil.InstrumentedHeapFile(hotFile, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 64, null, null);
+        BufferPool bp = Database.resetBufferPool(16);
+
+        TransactionId tid = new TransactionId();
+        PageId hotPid = new HeapPageId(hot.getId(), 0);
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+        bp.unpinPage(tid, hotPid);
+        assertEquals(1, hot.readCount);
+
+        final AtomicInteger count = new AtomicInteger();
+        new Pipeline(new SeqScan(tid, big.getId(), "big")).run(new TupleSink() {
+            public boolean consume(Tuple t) {
+                count.incrementAndGet();
+                return true;
+            }
+        }, 4);
+        assertEquals(504 * 64, count.get());
+
+        bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+        assertEquals(1, hot.readCount);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -0,0 +1,81 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+	/* commit a transaction on each of n threads at once */
+	private int commitConcurrently(final LogFile log, int n) throws Exception {
+		final AtomicInteger committed = new AtomicInteger();
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < n; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						TransactionId tid = new TransactionId();
+						log.logXactionBegin(tid);
+						log.logCommit(tid);
+						committed.incrementAndGet();
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads)
+			t.join();
+		return committed.get();
+	}
+
+	/**
+	 * Commits that arrive within the group commit delay share one force.
+	 */
+	@Test public void commitsShareForce() throws Exception {
+		LogFile log = Database.getLogFile();
+		log.setGroupCommit(8, 2000);
+		int forces = log.getTotalForces();
+
+		assertEquals(8, commitConcurrently(log, 8));
+		assertEquals(1, log.getTotalForces() - forces);
+	}
+
+	/**
+	 * A group leader does not wait longer than the delay for its group to fill.
+	 */
+	@Test public void delayBoundsWait() throws Exception {
+		LogFile log = Database.getLogFile();
+		log.setGroupCommit(1000, 50);
+
+		long start = System.currentTimeMillis();
+		assertEquals(2, commitConcurrently(log, 2));
+		assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+
+	/**
+	 * Without a delay every commit is still durable when logCommit returns.
+	 */
+	@Test public void commitIsDurable() throws Exception {
+		LogFile log = Database.getLogFile();
+		int forces = log.getTotalForces();
+		assertEquals(4, commitConcurrently(log, 4));
+		int used = log.getTotalForces() - forces;
+		assertTrue(used >= 1 && used <= 4);
+		assertEquals(log.getEndLsn(), log.getDurableLsn());
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(GroupCommitTest.class);
+	}
+}
@@ -0,0 +1,222 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * HashJoin returns the same tuples as Join for an = predicate.
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+
+    op.rewind();
+    eqJoin.rewind();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Every pair of tuples with equal keys is joined, when both sides
+   * repeat a key.
+   */
+  @Test public void duplicateKeys() throws Exception {
+    DbIterator left = TestUtil.createTupleList(1, new int[] { 1, 1, 2 });
+    DbIterator right = TestUtil.createTupleList(1, new int[] { 1, 3, 1 });
+    DbIterator expected = TestUtil.createTupleList(2, new int[] { 1, 1, 1, 1, 1, 1, 1, 1 });
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+    op.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /* @return each distinct tuple op returns, with how many times it does */
+  private HashMap<String, Integer> results(DbIterator op) throws Exception {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    while (op.hasNext()) {
+      String t = op.next().toString();
+      Integer n = counts.get(t);
+      counts.put(t, n == null ? 1 : n + 1);
+    }
+    return counts;
+  }
+
+  /* @return n random keys below range */
+  private int[] randomKeys(Random r, int n, int range) {
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = r.nextInt(range);
+    return keys;
+  }
+
+  /**
+   * Inputs larger than the memory budget are partitioned to disk, and
+   * still joined to every matching pair.
+   */
+  @Test public void spillsOverBudget() throws Exception {
+    Random r = new Random(42);
+    int[] lefts = randomKeys(r, 3000, 500);
+    int[] rights = randomKeys(r, 2000, 500);
+    ArrayList<Integer> matching = new ArrayList<Integer>();
+    for (int lk : lefts) {
+      for (int rk : rights) {
+        if (lk == rk) {
+          matching.add(lk);
+          matching.add(rk);
+        }
+      }
+    }
+    int[] pairs = new int[matching.size()];
+    for (int i = 0; i < pairs.length; i++)
+      pairs[i] = matching.get(i);
+    HashMap<String, Integer> expected = results(TestUtil.createTupleList(2, pairs));
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, TestUtil.createTupleList(1, lefts),
+        TestUtil.createTupleList(1, rights));
+    op.setMemoryBudget(12000);
+    op.open();
+    assertEquals(expected, results(op));
+    assertTrue(op.getSpillCount() > 0);
+
+    op.rewind();
+    assertEquals(expected, results(op));
+    op.close();
+  }
+
+  /**
+   * A key too common to fit in the budget is joined in chunks once
+   * partitioning stops splitting it.
+   */
+  @Test public void skewedKey() throws Exception {
+    int[] lefts = new int[300], rights = new int[200];
+    Arrays.fill(lefts, 7);
+    Arrays.fill(rights, 7);
+    rights[0] = 8;
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(1, lefts), TestUtil.createTupleList(1, rights));
+    op.setMemoryBudget(3000);
+    op.open();
+    HashMap<String, Integer> joined = results(op);
+    assertEquals(1, joined.size());
+    assertEquals(300 * 199, (int) joined.values().iterator().next());
+    op.close();
+  }
+
+  /**
+   * The budget is in heap bytes: an inner child whose on-page size fits
+   * it, but whose tuples in memory take up far more, is spilled.
+   */
+  @Test public void budgetCountsHeap() throws Exception {
+    int[] keys = randomKeys(new Random(43), 100, 50);
+    assertTrue(100 * Utility.getTupleDesc(1).getSize() < 4000);
+    HashJoin op = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(1, keys), TestUtil.createTupleList(1, keys));
+    op.setMemoryBudget(4000);
+    op.open();
+    results(op);
+    assertTrue(op.getSpillCount() > 0);
+    op.close();
+  }
+
+  /**
+   * A join whose left input is the smaller one builds its table from
+   * it, spilled or not, and still returns the left tuple's fields first.
+   */
+  @Test public void buildLeft() throws Exception {
+    Random r = new Random(44);
+    int[] lefts = randomKeys(r, 2 * 60, 40);
+    int[] rights = randomKeys(r, 2 * 1500, 40);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    Join nested = new Join(pred, TestUtil.createTupleList(2, lefts),
+        TestUtil.createTupleList(2, rights));
+    nested.open();
+    HashMap<String, Integer> expected = results(nested);
+    for (long budget : new long[] { HashJoin.DEFAULT_MEMORY_BUDGET, 1500 }) {
+      HashJoin op = new HashJoin(pred, TestUtil.createTupleList(2, lefts),
+          TestUtil.createTupleList(2, rights));
+      op.setBuildLeft(true);
+      op.setMemoryBudget(budget);
+      op.open();
+      assertEquals(expected, results(op));
+      assertEquals(budget < HashJoin.DEFAULT_MEMORY_BUDGET, op.getSpillCount() > 0);
+      op.rewind();
+      assertEquals(expected, results(op));
+      op.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class) public void needsEquality() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * The optimizer hashes equality joins, building the table from the
+   * input estimated to be smaller, and models that as cheaper than a
+   * nested loop whichever side it is on.
+   */
+  @Test public void optimizerChoosesHashJoin() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a."), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b."), new ArrayList<Tuple>());
+    LogicalJoinNode eq = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.EQUALS);
+    LogicalJoinNode ne = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.NOT_EQUALS);
+    assertTrue(JoinOptimizer.instantiateJoin(eq, a, b) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(ne, a, b) instanceof Join);
+    assertTrue(((HashJoin) JoinOptimizer.instantiateJoin(eq, a, b, 100, 10000)).isBuildLeft());
+    assertFalse(((HashJoin) JoinOptimizer.instantiateJoin(eq, a, b, 10000, 100)).isBuildLeft());
+
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    double hashSmallRight = jo.estimateJoinCost(eq, 10000, 100, 1000, 10);
+    double hashSmallLeft = jo.estimateJoinCost(eq, 100, 10000, 10, 1000);
+    assertEquals(hashSmallRight, hashSmallLeft, 0.001);
+    assertTrue(hashSmallRight < jo.estimateJoinCost(ne, 10000, 100, 1000, 10));
+    assertTrue(hashSmallLeft < jo.estimateJoinCost(ne, 100, 10000, 10, 1000));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
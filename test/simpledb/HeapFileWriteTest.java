@@ -1,9 +1,18 @@
 package simpledb;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import simpledb.systemtest.SystemTestUtil;
+
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
 
@@ -43,6 +52,104 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for HeapFile.writePages()
+     */
+    @Test public void writePages() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 4, null, null);
+        int id = hf.getId();
+        byte[][] before = new byte[4][];
+        for (int i = 0; i < 4; ++i)
+            before[i] = hf.readPage(new HeapPageId(id, i)).getPageData();
+
+        // a run of two adjacent pages, then a separate page, all shuffled
+        ArrayList<Page> pages = new ArrayList<Page>();
+        pages.add(new HeapPage(new HeapPageId(id, 0), before[3]));
+        pages.add(new HeapPage(new HeapPageId(id, 1), before[2]));
+        pages.add(new HeapPage(new HeapPageId(id, 3), before[0]));
+        hf.writePages(pages);
+
+        assertEquals(4, hf.numPages());
+        assertArrayEquals(before[3], hf.readPage(new HeapPageId(id, 0)).getPageData());
+        assertArrayEquals(before[2], hf.readPage(new HeapPageId(id, 1)).getPageData());
+        assertArrayEquals(before[2], hf.readPage(new HeapPageId(id, 2)).getPageData());
+        assertArrayEquals(before[0], hf.readPage(new HeapPageId(id, 3)).getPageData());
+    }
+
+    /** HeapFile that is slow to add a page to its end, and counts how often it does. */
+    private static class SlowGrowingHeapFile extends HeapFile {
+        final AtomicInteger grown = new AtomicInteger();
+
+        SlowGrowingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            if (page.getId().pageNumber() >= numPages()) {
+                grown.incrementAndGet();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.writePage(page);
+        }
+    }
+
+    /**
+     * Two transactions inserting into a full table at once add one page
+     * between them, and both their tuples are on it once they commit.
+     */
+    @Test public void concurrentGrowth() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504, 1000, null, null);
+        final SlowGrowingHeapFile hf = new SlowGrowingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final Exception[] failure = new Exception[1];
+        Thread[] inserters = new Thread[2];
+        for (int i = 0; i < inserters.length; i++) {
+            final int value = i;
+            inserters[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        insertUntilCommitted(hf, value);
+                    } catch (Exception e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            inserters[i].start();
+        }
+        start.countDown();
+        for (Thread t : inserters)
+            t.join();
+        if (failure[0] != null)
+            throw failure[0];
+
+        assertEquals(1, hf.grown.get());
+        assertEquals(2, hf.numPages());
+        HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertEquals(504 - 2, onDisk.getNumEmptySlots());
+    }
+
+    /* insert a tuple in its own transaction, again if it is aborted */
+    private static void insertUntilCommitted(HeapFile hf, int value) throws Exception {
+        while (true) {
+            TransactionId t = new TransactionId();
+            try {
+                Database.getBufferPool().insertTuple(t, hf.getId(), Utility.getHeapTuple(value, 2));
+                Database.getBufferPool().transactionComplete(t, true);
+                return;
+            } catch (TransactionAbortedException e) {
+                Database.getBufferPool().transactionComplete(t, false);
+            }
+        }
+    }
+
     /**
      * JUnit suite target
      */
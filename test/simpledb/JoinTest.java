@@ -3,6 +3,8 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +107,43 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * The inner child is scanned once per block of outer tuples, and every
+   * block size returns the same tuples.
+   */
+  @Test public void blockNestedLoop() throws Exception {
+    final int[] rewinds = new int[1];
+    ArrayList<Tuple> inner = new ArrayList<Tuple>();
+    scan2.open();
+    while (scan2.hasNext())
+      inner.add(scan2.next());
+    DbIterator countingScan = new TupleIterator(Utility.getTupleDesc(width2), inner) {
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    for (int blockSize : new int[] { 1, 3, 4 }) {
+      Join op = new Join(pred, scan1, countingScan);
+      op.setBlockSize(blockSize);
+      op.open();
+      rewinds[0] = 0;
+      int n = 0;
+      while (op.hasNext()) {
+        op.next();
+        n++;
+      }
+      // 4 outer tuples: one scan per block, the first without a rewind
+      assertEquals((4 + blockSize - 1) / blockSize - 1, rewinds[0]);
+      assertEquals(11, n);
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
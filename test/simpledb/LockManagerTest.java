@@ -0,0 +1,266 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.LockManager.LockMode;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+	private LockManager lm;
+	private PageId p0, p1;
+	private TransactionId t1, t2;
+
+	@Before public void createLocks() {
+		lm = new LockManager();
+		p0 = new HeapPageId(1, 0);
+		p1 = new HeapPageId(1, 1);
+		t1 = new TransactionId();
+		t2 = new TransactionId();
+	}
+
+	/* try to take a lock on another thread; count down done once it is granted */
+	private Thread acquireAsync(final TransactionId tid, final PageId pid, final LockMode mode,
+			final CountDownLatch done, final AtomicInteger aborts) {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					lm.acquire(tid, pid, mode);
+					done.countDown();
+				} catch (TransactionAbortedException e) {
+					aborts.incrementAndGet();
+					lm.releaseAll(tid);
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	private Thread acquireTableAsync(final TransactionId tid, final int tableId, final LockMode mode,
+			final CountDownLatch done) {
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					lm.acquireTable(tid, tableId, mode);
+					done.countDown();
+				} catch (TransactionAbortedException e) {
+					lm.releaseAll(tid);
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	@Test public void sharedLocksAreCompatible() throws Exception {
+		lm.acquire(t1, p0, LockMode.SHARED);
+		lm.acquire(t2, p0, LockMode.SHARED);
+		assertEquals(LockMode.SHARED, lm.getLockMode(t1, p0));
+		assertEquals(LockMode.SHARED, lm.getLockMode(t2, p0));
+	}
+
+	@Test public void exclusiveLockBlocks() throws Exception {
+		lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+		CountDownLatch granted = new CountDownLatch(1);
+		Thread t = acquireAsync(t2, p0, LockMode.SHARED, granted, new AtomicInteger());
+		assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+
+		lm.releaseAll(t1);
+		assertTrue(granted.await(1, TimeUnit.SECONDS));
+		t.join();
+		assertFalse(lm.holdsLock(t1, p0));
+		assertTrue(lm.holdsLock(t2, p0));
+	}
+
+	@Test public void upgrade() throws Exception {
+		lm.acquire(t1, p0, LockMode.SHARED);
+		lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+		assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t1, p0));
+
+		// a later shared request does not downgrade the lock
+		lm.acquire(t1, p0, LockMode.SHARED);
+		assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t1, p0));
+	}
+
+	@Test public void deadlockAbortsOneTransaction() throws Exception {
+		lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+		lm.acquire(t2, p1, LockMode.EXCLUSIVE);
+
+		CountDownLatch granted = new CountDownLatch(2);
+		AtomicInteger aborts = new AtomicInteger();
+		Thread a = acquireAsync(t1, p1, LockMode.EXCLUSIVE, granted, aborts);
+		Thread b = acquireAsync(t2, p0, LockMode.EXCLUSIVE, granted, aborts);
+		a.join(5000);
+		b.join(5000);
+		assertFalse(a.isAlive() || b.isAlive());
+
+		// exactly one side is aborted; the other then gets its lock
+		assertEquals(1, aborts.get());
+		assertEquals(1, granted.getCount());
+	}
+
+	@Test public void waitDie() throws Exception {
+		lm.setDeadlockPolicy(LockManager.DeadlockPolicy.WAIT_DIE);
+		lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+		lm.acquire(t2, p1, LockMode.EXCLUSIVE);
+
+		// the younger transaction dies rather than wait for the older one
+		try {
+			lm.acquire(t2, p0, LockMode.SHARED);
+			fail("expected TransactionAbortedException");
+		} catch (TransactionAbortedException e) {
+			// expected
+		}
+		assertEquals(1, lm.getAbortCount());
+
+		// the older one waits for the younger one
+		CountDownLatch granted = new CountDownLatch(1);
+		Thread t = acquireAsync(t1, p1, LockMode.SHARED, granted, new AtomicInteger());
+		assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+		lm.releaseAll(t2);
+		assertTrue(granted.await(1, TimeUnit.SECONDS));
+		t.join();
+		assertEquals(1, lm.getWaitCount());
+		assertTrue(lm.getWaitMillis() > 0);
+	}
+
+	@Test public void woundWait() throws Exception {
+		lm.setDeadlockPolicy(LockManager.DeadlockPolicy.WOUND_WAIT);
+		lm.acquire(t2, p0, LockMode.EXCLUSIVE);
+
+		// the older transaction wounds the younger holder and waits for it
+		CountDownLatch granted = new CountDownLatch(1);
+		Thread t = acquireAsync(t1, p0, LockMode.SHARED, granted, new AtomicInteger());
+		assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+		try {
+			lm.acquire(t2, p1, LockMode.SHARED);
+			fail("expected TransactionAbortedException");
+		} catch (TransactionAbortedException e) {
+			lm.releaseAll(t2);
+		}
+		assertTrue(granted.await(1, TimeUnit.SECONDS));
+		t.join();
+		assertEquals(1, lm.getAbortCount());
+
+		// a younger requester just waits
+		lm.resetCounters();
+		TransactionId t3 = new TransactionId();
+		granted = new CountDownLatch(1);
+		t = acquireAsync(t3, p0, LockMode.EXCLUSIVE, granted, new AtomicInteger());
+		assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+		lm.releaseAll(t1);
+		assertTrue(granted.await(1, TimeUnit.SECONDS));
+		t.join();
+		assertEquals(0, lm.getAbortCount());
+	}
+
+	@Test public void intentionLocks() throws Exception {
+		lm.acquire(t1, p0, LockMode.EXCLUSIVE);
+		assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getTableLockMode(t1, 1));
+
+		// a table lock conflicts with the writer's intention lock
+		CountDownLatch granted = new CountDownLatch(1);
+		Thread t = acquireTableAsync(t2, 1, LockMode.SHARED, granted);
+		assertFalse(granted.await(100, TimeUnit.MILLISECONDS));
+		lm.releaseAll(t1);
+		assertTrue(granted.await(1, TimeUnit.SECONDS));
+		t.join();
+
+		// and covers page reads without taking page locks
+		lm.acquire(t2, p1, LockMode.SHARED);
+		assertNull(lm.getLockMode(t2, p1));
+		assertTrue(lm.holdsLock(t2, p1));
+	}
+
+	@Test public void modes() {
+		assertEquals(LockMode.SHARED_INTENTION_EXCLUSIVE,
+				LockMode.SHARED.join(LockMode.INTENTION_EXCLUSIVE));
+		assertTrue(LockMode.SHARED_INTENTION_EXCLUSIVE.compatibleWith(LockMode.INTENTION_SHARED));
+		assertFalse(LockMode.SHARED_INTENTION_EXCLUSIVE.compatibleWith(LockMode.INTENTION_EXCLUSIVE));
+		assertTrue(LockMode.INTENTION_EXCLUSIVE.compatibleWith(LockMode.INTENTION_EXCLUSIVE));
+		assertFalse(LockMode.SHARED.compatibleWith(LockMode.INTENTION_EXCLUSIVE));
+	}
+
+	@Test public void tupleLocks() throws Exception {
+		RecordId r0 = new RecordId(p0, 0), r1 = new RecordId(p0, 1);
+		lm.acquire(t1, r0, LockMode.EXCLUSIVE);
+		lm.acquire(t2, r1, LockMode.EXCLUSIVE);
+		assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getLockMode(t1, p0));
+		assertEquals(LockMode.INTENTION_EXCLUSIVE, lm.getLockMode(t2, p0));
+		assertEquals(LockMode.EXCLUSIVE, lm.getLockMode(t2, r1));
+	}
+
+	@Test public void escalation() throws Exception {
+		lm.setEscalationThreshold(3);
+		for (int i = 0; i < 3; i++)
+			lm.acquire(t1, new HeapPageId(1, i), LockMode.SHARED);
+		assertEquals(3, lm.getLockedPages(t1).size());
+		assertEquals(LockMode.INTENTION_SHARED, lm.getTableLockMode(t1, 1));
+
+		lm.acquire(t1, new HeapPageId(1, 3), LockMode.SHARED);
+		assertEquals(LockMode.SHARED, lm.getTableLockMode(t1, 1));
+		assertTrue(lm.getLockedPages(t1).isEmpty());
+		assertTrue(lm.holdsLock(t1, new HeapPageId(1, 100)));
+
+		// a transaction that wrote the table escalates to an exclusive lock
+		lm.acquire(t2, new HeapPageId(2, 0), LockMode.EXCLUSIVE);
+		for (int i = 1; i < 4; i++)
+			lm.acquire(t2, new HeapPageId(2, i), LockMode.SHARED);
+		assertEquals(LockMode.EXCLUSIVE, lm.getTableLockMode(t2, 2));
+	}
+
+	@Test public void bufferPoolTakesLocks() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1008, null, null);
+		BufferPool bp = Database.getBufferPool();
+		PageId pid = new HeapPageId(table.getId(), 0);
+
+		bp.getPage(t1, pid, Permissions.READ_ONLY);
+		assertTrue(bp.holdsLock(t1, pid));
+		bp.getPage(t2, pid, Permissions.READ_ONLY);
+		assertTrue(bp.holdsLock(t2, pid));
+
+		bp.releasePage(t2, pid);
+		assertFalse(bp.holdsLock(t2, pid));
+		bp.transactionComplete(t1);
+		assertFalse(bp.holdsLock(t1, pid));
+	}
+
+	@Test public void insertKeepsLocksOnFullPages() throws Exception {
+		// one free slot left on page 0
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 503, null, null);
+		PageId pid = new HeapPageId(table.getId(), 0);
+
+		table.insertTuple(t1, Utility.getHeapTuple(1, 2));
+		assertEquals(LockMode.EXCLUSIVE, poolLockMode(t1, pid));
+		// page 0 is full now: the next insert looks at it and moves on
+		table.insertTuple(t1, Utility.getHeapTuple(2, 2));
+		assertEquals(2, table.numPages());
+		assertTrue(Database.getBufferPool().holdsLock(t1, pid));
+		assertEquals(LockMode.EXCLUSIVE, poolLockMode(t1, pid));
+
+		// a page only looked at is not kept locked
+		Database.getBufferPool().transactionComplete(t1);
+		table.insertTuple(t2, Utility.getHeapTuple(3, 2));
+		assertFalse(Database.getBufferPool().holdsLock(t2, pid));
+	}
+
+	private LockMode poolLockMode(TransactionId tid, PageId pid) {
+		return Database.getBufferPool().getLockManager().getLockMode(tid, pid);
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LockManagerTest.class);
+	}
+}
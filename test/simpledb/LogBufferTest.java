@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LogBufferTest extends SimpleDbTestBase {
+
+	/**
+	 * Records appended concurrently all reach the log, each whole and at
+	 * the position its LSN names.
+	 */
+	@Test public void concurrentAppends() throws Exception {
+		final LogFile log = Database.getLogFile();
+		final int threads = 8, perThread = 200;
+		ArrayList<Thread> appenders = new ArrayList<Thread>();
+		for (int i = 0; i < threads; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < perThread; j++) {
+							TransactionId tid = new TransactionId();
+							log.logXactionBegin(tid);
+							log.logCommit(tid);
+						}
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			appenders.add(t);
+			t.start();
+		}
+		for (Thread t : appenders)
+			t.join();
+		assertEquals(log.getEndLsn(), log.getDurableLsn());
+
+		LogSegments.Reader in = new LogSegments(log.logFile, LogFile.DEFAULT_SEGMENT_SIZE).reader(log.getStartLsn());
+		HashSet<Long> begun = new HashSet<Long>(), committed = new HashSet<Long>();
+		while (in.position() < log.getEndLsn()) {
+			LogFile.LogRecord record = log.readRecord(in);
+			if (record.type == LogFile.BEGIN_RECORD)
+				assertTrue(begun.add(record.tid));
+			else if (record.type == LogFile.COMMIT_RECORD)
+				assertTrue(begun.contains(record.tid) && committed.add(record.tid));
+		}
+		in.close();
+		assertEquals(threads * perThread, committed.size());
+	}
+
+	/**
+	 * Appending does not wait for a force in progress.
+	 */
+	@Test public void appendsDoNotWaitForCommits() throws Exception {
+		final LogFile log = Database.getLogFile();
+		log.setGroupCommit(1000, 500);
+		final TransactionId committer = new TransactionId();
+		log.logXactionBegin(committer);
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					log.logCommit(committer);
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		long start = System.currentTimeMillis();
+		t.start();
+
+		// the commit waits out the group delay; beginning does not
+		log.logXactionBegin(new TransactionId());
+		assertTrue(System.currentTimeMillis() - start < 400);
+		assertTrue(t.isAlive());
+		t.join();
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LogBufferTest.class);
+	}
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogSegmentTest extends SimpleDbTestBase {
+
+	private File dir;
+	private File logFile;
+
+	@Before public void createDir() throws Exception {
+		dir = File.createTempFile("logsegments", "");
+		dir.delete();
+		dir.mkdir();
+		logFile = new File(dir, "log");
+	}
+
+	@After public void removeDir() {
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	private void commitMany(LogFile log, int n) throws Exception {
+		for (int i = 0; i < n; i++) {
+			TransactionId tid = new TransactionId();
+			log.logXactionBegin(tid);
+			log.logCommit(tid);
+		}
+	}
+
+	/**
+	 * A checkpoint drops the segments before it, keeping a few for reuse,
+	 * and the log writes into those instead of allocating new ones.
+	 */
+	@Test public void truncationRecyclesSegments() throws Exception {
+		LogFile log = new LogFile(logFile, 1024);
+		commitMany(log, 500);
+		int written = log.getSegmentCount();
+		assertTrue(written > LogSegments.MAX_SPARES + 2);
+
+		log.logCheckpoint();
+		assertTrue(log.getStartLsn() > 0);
+		assertTrue(log.getSegmentCount() <= LogSegments.MAX_SPARES + 2);
+
+		commitMany(log, 50);
+		log.logCheckpoint();
+		assertTrue(log.getSegmentCount() <= LogSegments.MAX_SPARES + 2);
+		assertEquals(log.getSegmentCount(), dir.listFiles().length - 1);
+
+		// recycled segments hold stale records, which recovery ignores
+		long end = log.getEndLsn();
+		LogFile recovered = new LogFile(logFile, 1024);
+		recovered.recover();
+		assertEquals(end, recovered.getEndLsn());
+	}
+
+	/**
+	 * A page image larger than a segment is logged across segments and
+	 * read back whole.
+	 */
+	@Test public void recordsSpanSegments() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		HeapPageId pid = new HeapPageId(table.getId(), 0);
+		HeapPage before = (HeapPage) table.readPage(pid);
+		HeapPage after = (HeapPage) table.readPage(pid);
+		after.deleteTuple(after.iterator().next());
+
+		LogFile log = new LogFile(logFile, 1000);
+		TransactionId loser = new TransactionId();
+		log.logXactionBegin(loser);
+		log.logWrite(loser, before, after);
+		log.force();
+		assertTrue(log.getSegmentCount() > 1);
+		table.writePage(after);
+
+		new LogFile(logFile, 1000).recover();
+		assertArrayEquals(before.getPageData(), table.readPage(pid).getPageData());
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(LogSegmentTest.class);
+	}
+}
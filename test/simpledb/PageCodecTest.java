@@ -0,0 +1,65 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCodecTest extends SimpleDbTestBase {
+
+	/**
+	 * A page written to the log is read back with the same id and data.
+	 */
+	@Test public void roundTrip() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		Page page = table.readPage(new HeapPageId(table.getId(), 0));
+		LogFile log = Database.getLogFile();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		log.writePageData(new DataOutputStream(bytes), page);
+		// a tag, two ints of id and the length: no class names
+		assertEquals(2 + 3 * 4 + BufferPool.getPageSize(), bytes.size());
+
+		Page read = log.readPageData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertTrue(read instanceof HeapPage);
+		assertEquals(page.getId(), read.getId());
+		assertArrayEquals(page.getPageData(), read.getPageData());
+	}
+
+	@Test(expected = IOException.class) public void unknownTag() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new DataOutputStream(bytes).writeShort(999);
+		Database.getLogFile().readPageData(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+	@Test public void conflictingCodec() {
+		PageCodec.register(PageCodec.HEAP_PAGE);
+		try {
+			PageCodec.register(new PageCodec(PageCodec.HEAP_PAGE.getTag(), Page.class) {
+				protected void writeId(DataOutput out, PageId pid) {}
+				protected PageId readId(DataInput in) { return null; }
+				protected Page newPage(PageId pid, byte[] data) { return null; }
+			});
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(PageCodecTest.class);
+	}
+}
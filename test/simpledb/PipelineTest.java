@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PipelineTest extends SimpleDbTestBase {
+
+  private HeapFile left, right;
+  private TransactionId tid;
+
+  @Before public void createTables() throws Exception {
+    left = SystemTestUtil.createRandomHeapFile(2, 4000, 500, null, new ArrayList<ArrayList<Integer>>());
+    right = SystemTestUtil.createRandomHeapFile(2, 1000, 500, null, new ArrayList<ArrayList<Integer>>());
+    tid = new TransactionId();
+  }
+
+  /* Project(Filter(HashJoin(left, Filter(right)))) */
+  private DbIterator plan(long budget) {
+    return plan(budget, false);
+  }
+
+  private DbIterator plan(long budget, boolean buildLeft) {
+    Filter small = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+        new SeqScan(tid, right.getId(), "r"));
+    HashJoin join = new HashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, left.getId(), "l"), small);
+    join.setMemoryBudget(budget);
+    join.setBuildLeft(buildLeft);
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(3);
+    fields.add(1);
+    return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100)), join));
+  }
+
+  /* @return each distinct tuple op returns, with how many times it does */
+  private HashMap<String, Integer> pulled(DbIterator op) throws Exception {
+    Counter counter = new Counter();
+    op.open();
+    while (op.hasNext())
+      counter.consume(op.next());
+    op.close();
+    return counter.counts;
+  }
+
+  private HashMap<String, Integer> pushed(DbIterator op, int threads) throws Exception {
+    Counter counter = new Counter();
+    new Pipeline(op).run(counter, threads);
+    return counter.counts;
+  }
+
+  private static class Counter implements TupleSink {
+    final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    int n = 0;
+
+    public synchronized boolean consume(Tuple t) {
+      Integer c = counts.get(t.toString());
+      counts.put(t.toString(), c == null ? 1 : c + 1);
+      n++;
+      return true;
+    }
+  }
+
+  /**
+   * Pushing a tree returns the same tuples as pulling them, on one
+   * thread or several.
+   */
+  @Test public void matchesPull() throws Exception {
+    HashMap<String, Integer> expected = pulled(plan(HashJoin.DEFAULT_MEMORY_BUDGET));
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, pushed(plan(HashJoin.DEFAULT_MEMORY_BUDGET), 1));
+    assertEquals(expected, pushed(plan(HashJoin.DEFAULT_MEMORY_BUDGET), 4));
+  }
+
+  /**
+   * A join that builds its table from its left child pushes the right
+   * child's tuples through it instead.
+   */
+  @Test public void buildLeft() throws Exception {
+    HashMap<String, Integer> expected = pulled(plan(HashJoin.DEFAULT_MEMORY_BUDGET));
+    assertEquals(expected, pulled(plan(HashJoin.DEFAULT_MEMORY_BUDGET, true)));
+    assertEquals(expected, pushed(plan(HashJoin.DEFAULT_MEMORY_BUDGET, true), 4));
+  }
+
+  /**
+   * A hash table over the join's budget leaves the join to spill as it
+   * does when pulled.
+   */
+  @Test public void buildOverBudget() throws Exception {
+    HashMap<String, Integer> expected = pulled(plan(HashJoin.DEFAULT_MEMORY_BUDGET));
+    assertEquals(expected, pushed(plan(18000), 4));
+  }
+
+  /**
+   * OrderBy sorts everything its child's pipeline pushes, on any number
+   * of threads, before pushing any of it.
+   */
+  @Test public void orderBy() throws Exception {
+    final ArrayList<Integer> keys = new ArrayList<Integer>();
+    OrderBy order = new OrderBy(0, true, new SeqScan(tid, left.getId(), "l"));
+    order.setMemoryBudget(73728);
+    new Pipeline(order).run(new TupleSink() {
+      public boolean consume(Tuple t) {
+        keys.add(((IntField) t.getField(0)).getValue());
+        return true;
+      }
+    }, 4);
+    assertEquals(4000, keys.size());
+    for (int i = 1; i < keys.size(); i++)
+      assertTrue(keys.get(i - 1) <= keys.get(i));
+  }
+
+  /**
+   * A sink that wants no more tuples stops the pipeline.
+   */
+  @Test public void stopEarly() throws Exception {
+    final int[] n = { 0 };
+    new Pipeline(new SeqScan(tid, left.getId(), "l")).run(new TupleSink() {
+      public boolean consume(Tuple t) {
+        return ++n[0] < 10;
+      }
+    });
+    assertEquals(10, n[0]);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PipelineTest.class);
+  }
+}
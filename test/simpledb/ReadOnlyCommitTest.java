@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadOnlyCommitTest extends SimpleDbTestBase {
+
+	private HeapFile table;
+	private LogFile log;
+
+	@Before public void createTable() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		log = Database.getLogFile();
+	}
+
+	private int scan(Transaction t) throws Exception {
+		SeqScan scan = new SeqScan(t.getId(), table.getId(), "");
+		scan.open();
+		int n = 0;
+		while (scan.hasNext()) {
+			scan.next();
+			n++;
+		}
+		scan.close();
+		return n;
+	}
+
+	/**
+	 * A transaction that only reads writes nothing to the log, whether it
+	 * commits or aborts.
+	 */
+	@Test public void readerSkipsLog() throws Exception {
+		long end = log.getEndLsn();
+		int forces = log.getTotalForces();
+
+		Transaction t = new Transaction();
+		t.start();
+		assertEquals(10, scan(t));
+		t.commit();
+
+		t = new Transaction();
+		t.start();
+		assertEquals(10, scan(t));
+		t.abort();
+
+		assertEquals(end, log.getEndLsn());
+		assertEquals(forces, log.getTotalForces());
+	}
+
+	/**
+	 * The BEGIN record is logged with the first change, and the
+	 * transaction then commits as usual.
+	 */
+	@Test public void beginsOnFirstWrite() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		assertEquals(10, scan(t));
+		assertFalse(log.hasBegun(t.getId()));
+
+		Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+				Utility.getHeapTuple(new int[] { 1, 2 }));
+		assertTrue(log.hasBegun(t.getId()));
+		t.commit();
+		assertFalse(log.hasBegun(t.getId()));
+		assertEquals(log.getEndLsn(), log.getDurableLsn());
+
+		t = new Transaction();
+		t.start();
+		assertEquals(11, scan(t));
+		t.commit();
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ReadOnlyCommitTest.class);
+	}
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+	private HeapFile table;
+	private HeapPageId pid;
+	private BufferPool bp;
+
+	@Before public void createTable() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		pid = new HeapPageId(table.getId(), 0);
+		bp = Database.getBufferPool();
+	}
+
+	private int countOnDisk() {
+		Iterator<Tuple> it = ((HeapPage) table.readPage(pid)).iterator();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+
+	private Transaction insert(int value) throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { value, value }));
+		return t;
+	}
+
+	/* recover from the current log as if the system had just restarted */
+	private LogFile crashAndRecover() throws Exception {
+		LogFile log = new LogFile(Database.getLogFile().logFile);
+		log.recover();
+		return log;
+	}
+
+	/**
+	 * Committed changes missing from disk are redone, and changes of
+	 * transactions that never finished are undone.
+	 */
+	@Test public void redoAndUndo() throws Exception {
+		Page original = table.readPage(pid);
+
+		insert(1).commit();
+		Transaction loser = insert(2);
+		bp.flushPages(loser.getId());
+		assertEquals(12, countOnDisk());
+
+		// the committed insert's page write is lost in the crash
+		table.writePage(original);
+		assertEquals(10, countOnDisk());
+
+		crashAndRecover();
+		assertEquals(11, countOnDisk());
+	}
+
+	/**
+	 * Recovery starts from the last checkpoint, and logs the transactions it
+	 * rolled back so that recovering again changes nothing.
+	 */
+	@Test public void afterCheckpoint() throws Exception {
+		insert(1).commit();
+		Database.getLogFile().logCheckpoint();
+		Page checkpointed = table.readPage(pid);
+
+		insert(2).commit();
+		Transaction loser = insert(3);
+		bp.flushPages(loser.getId());
+		table.writePage(checkpointed);
+
+		LogFile log = crashAndRecover();
+		assertEquals(12, countOnDisk());
+		long end = log.getEndLsn();
+
+		LogFile again = new LogFile(log.logFile);
+		again.recover();
+		assertEquals(12, countOnDisk());
+		assertEquals(end, again.getEndLsn());
+	}
+
+	/**
+	 * A checkpoint leaves dirty pages in the buffer pool, and recovery
+	 * still redoes changes logged before it that never reached disk.
+	 */
+	@Test public void fuzzyCheckpoint() throws Exception {
+		Page original = table.readPage(pid);
+		Transaction running = insert(1);
+		Database.getLogFile().logCheckpoint();
+		assertEquals(10, countOnDisk());
+		assertTrue(bp.getDirtyPageTable().containsKey(pid));
+
+		running.commit();
+		assertEquals(11, countOnDisk());
+		table.writePage(original);
+
+		crashAndRecover();
+		assertEquals(11, countOnDisk());
+	}
+
+	/**
+	 * A transaction that rolled back before the crash stays rolled back,
+	 * even though a later transaction reused its slot.
+	 */
+	@Test public void rolledBackStaysRolledBack() throws Exception {
+		// (random values are never negative)
+		Transaction aborted = insert(-1);
+		bp.flushPages(aborted.getId());
+		aborted.abort();
+		assertEquals(10, countOnDisk());
+		insert(-2).commit();
+
+		crashAndRecover();
+		assertEquals(11, countOnDisk());
+		Iterator<Tuple> it = ((HeapPage) table.readPage(pid)).iterator();
+		boolean sawTwo = false;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertFalse(((IntField) t.getField(0)).getValue() == -1);
+			sawTwo |= ((IntField) t.getField(0)).getValue() == -2;
+		}
+		assertTrue(sawTwo);
+	}
+
+	/**
+	 * Redo and undo spread over several threads give the same pages as
+	 * replaying the log in order.
+	 */
+	@Test public void parallelRedoAndUndo() throws Exception {
+		LogFile log = Database.getLogFile();
+		TransactionId winner = new TransactionId(), loser = new TransactionId();
+		log.logXactionBegin(winner);
+		log.logXactionBegin(loser);
+
+		HeapFile[] tables = new HeapFile[2];
+		HeapPage[][] before = new HeapPage[2][3], after = new HeapPage[2][3];
+		for (int t = 0; t < 2; t++) {
+			tables[t] = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+			for (int p = 0; p < 3; p++) {
+				HeapPageId id = new HeapPageId(tables[t].getId(), p);
+				before[t][p] = (HeapPage) tables[t].readPage(id);
+				after[t][p] = (HeapPage) tables[t].readPage(id);
+				after[t][p].deleteTuple(after[t][p].iterator().next());
+				// pages 0 and 1 are the winner's, page 2 the loser's
+				log.logWrite(p < 2 ? winner : loser, before[t][p], after[t][p]);
+				tables[t].writePage(p < 2 ? before[t][p] : after[t][p]);
+			}
+		}
+		log.logCommit(winner);
+
+		LogFile recovered = new LogFile(log.logFile);
+		recovered.setRecoveryThreads(4);
+		recovered.recover();
+		for (int t = 0; t < 2; t++) {
+			for (int p = 0; p < 3; p++) {
+				HeapPage expected = p < 2 ? after[t][p] : before[t][p];
+				assertArrayEquals(expected.getPageData(),
+						tables[t].readPage(expected.getId()).getPageData());
+			}
+		}
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(RecoveryTest.class);
+	}
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SnapshotTest extends SimpleDbTestBase {
+
+	private int count(HeapFile table, TransactionId tid) throws Exception {
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		int n = 0;
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		it.close();
+		return n;
+	}
+
+	/**
+	 * A snapshot reader is neither blocked by a writer's locks nor sees
+	 * changes committed after it started.
+	 */
+	@Test public void readsSnapshot() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		BufferPool bp = Database.getBufferPool();
+
+		Transaction writer = new Transaction();
+		writer.start();
+		bp.insertTuple(writer.getId(), table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+		assertTrue(bp.holdsLock(writer.getId(), new HeapPageId(table.getId(), 0)));
+
+		Transaction reader = new Transaction(true);
+		reader.start();
+		assertEquals(10, count(table, reader.getId()));
+
+		writer.commit();
+		assertEquals(10, count(table, reader.getId()));
+
+		Transaction later = new Transaction(true);
+		later.start();
+		assertEquals(11, count(table, later.getId()));
+		later.commit();
+		reader.commit();
+
+		// and the snapshots took no locks
+		assertFalse(bp.holdsLock(reader.getId(), new HeapPageId(table.getId(), 0)));
+	}
+
+	/** Changes the writer rolls back are never visible. */
+	@Test public void abortedWritesInvisible() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		BufferPool bp = Database.getBufferPool();
+
+		Transaction writer = new Transaction();
+		writer.start();
+		bp.insertTuple(writer.getId(), table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+		bp.transactionComplete(writer.getId(), false);
+
+		Transaction reader = new Transaction(true);
+		reader.start();
+		assertEquals(10, count(table, reader.getId()));
+		reader.commit();
+	}
+
+	@Test(expected = DbException.class)
+	public void snapshotsAreReadOnly() throws Exception {
+		HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		Transaction reader = new Transaction(true);
+		reader.start();
+		Database.getBufferPool().getPage(reader.getId(),
+				new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SnapshotTest.class);
+	}
+}
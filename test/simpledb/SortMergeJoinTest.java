@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private static final Predicate.Op[] OPS = {
+    Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+    Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+  /* @return each distinct tuple op returns, with how many times it does */
+  private HashMap<String, Integer> results(DbIterator op) throws Exception {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    while (op.hasNext()) {
+      String t = op.next().toString();
+      Integer n = counts.get(t);
+      counts.put(t, n == null ? 1 : n + 1);
+    }
+    return counts;
+  }
+
+  /* @return the pairs of keys that satisfy op, as Join would return them */
+  private HashMap<String, Integer> expected(int[] lefts, int[] rights, Predicate.Op op)
+      throws Exception {
+    ArrayList<Integer> pairs = new ArrayList<Integer>();
+    for (int lk : lefts) {
+      for (int rk : rights) {
+        if (new IntField(lk).compare(op, new IntField(rk))) {
+          pairs.add(lk);
+          pairs.add(rk);
+        }
+      }
+    }
+    int[] data = new int[pairs.size()];
+    for (int i = 0; i < data.length; i++)
+      data[i] = pairs.get(i);
+    return results(TestUtil.createTupleList(2, data));
+  }
+
+  private int[] randomKeys(Random r, int n, int range) {
+    int[] keys = new int[n];
+    for (int i = 0; i < n; i++)
+      keys[i] = r.nextInt(range);
+    return keys;
+  }
+
+  /**
+   * Every comparison joins the same pairs as a nested loop, whether the
+   * sorts fit in memory or not, and again after a rewind.
+   */
+  @Test public void matchesNestedLoop() throws Exception {
+    Random r = new Random(7);
+    int[] lefts = randomKeys(r, 300, 60);
+    int[] rights = randomKeys(r, 200, 60);
+    for (Predicate.Op op : OPS) {
+      HashMap<String, Integer> expected = expected(lefts, rights, op);
+      for (long budget : new long[] { SortMergeJoin.DEFAULT_MEMORY_BUDGET, 3000 }) {
+        SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+            TestUtil.createTupleList(1, lefts), TestUtil.createTupleList(1, rights));
+        join.setMemoryBudget(budget);
+        join.open();
+        assertEquals(op + " in " + budget, expected, results(join));
+        join.rewind();
+        assertEquals(op + " in " + budget, expected, results(join));
+        join.close();
+      }
+    }
+  }
+
+  /**
+   * Children already sorted by OrderBy are merged as they are.
+   */
+  @Test public void sortedChildren() throws Exception {
+    Random r = new Random(8);
+    int[] lefts = randomKeys(r, 100, 20);
+    int[] rights = randomKeys(r, 100, 20);
+    DbIterator left = new OrderBy(0, true, TestUtil.createTupleList(1, lefts));
+    DbIterator right = new OrderBy(0, true, TestUtil.createTupleList(1, rights));
+    assertTrue(SortMergeJoin.isSortedOn(left, 0));
+
+    SortMergeJoin merge = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+    merge.open();
+    assertEquals(expected(lefts, rights, Predicate.Op.EQUALS), results(merge));
+  }
+
+  /**
+   * The optimizer merges inequality joins, and equality joins of
+   * children that are sorted on the join fields.
+   */
+  @Test public void optimizerChoosesSortMerge() throws Exception {
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(1, "a."), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(1, "b."), new ArrayList<Tuple>());
+    assertTrue(JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.LESS_THAN), a, b) instanceof SortMergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(
+        new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.EQUALS),
+        new OrderBy(0, true, a), new OrderBy(0, true, b)) instanceof SortMergeJoin);
+
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.LESS_THAN);
+    LogicalJoinNode ne = new LogicalJoinNode("a", "b", "a.0", "b.0", Predicate.Op.NOT_EQUALS);
+    assertTrue(jo.estimateJoinCost(lt, 10000, 10000, 1000, 1000)
+        < jo.estimateJoinCost(ne, 10000, 10000, 1000, 1000));
+  }
+
+  /**
+   * OrderBy sorts inputs larger than its memory budget through runs on disk.
+   */
+  @Test public void externalOrderBy() throws Exception {
+    int[] keys = randomKeys(new Random(9), 1000, 1000);
+    OrderBy order = new OrderBy(0, false, TestUtil.createTupleList(1, keys));
+    order.setMemoryBudget(1920);
+    order.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int n = 0, last = Integer.MAX_VALUE;
+      while (order.hasNext()) {
+        int key = ((IntField) order.next().getField(0)).getValue();
+        assertTrue(key <= last);
+        last = key;
+        n++;
+      }
+      assertEquals(keys.length, n);
+      order.rewind();
+    }
+    order.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
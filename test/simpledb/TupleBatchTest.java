@@ -0,0 +1,207 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /* @return each distinct tuple op returns, with how many times it does */
+  private HashMap<String, Integer> rows(DbIterator op) throws Exception {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    while (op.hasNext())
+      count(counts, op.next());
+    return counts;
+  }
+
+  /* @return the same, read a batch at a time */
+  private HashMap<String, Integer> batches(BatchIterator op) throws Exception {
+    HashMap<String, Integer> counts = new HashMap<String, Integer>();
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      for (int i = 0; i < batch.size(); i++)
+        count(counts, batch.getTuple(i));
+    }
+    return counts;
+  }
+
+  private void count(HashMap<String, Integer> counts, Tuple t) {
+    Integer n = counts.get(t.toString());
+    counts.put(t.toString(), n == null ? 1 : n + 1);
+  }
+
+  private int[] randomData(Random r, int n, int range) {
+    int[] data = new int[n];
+    for (int i = 0; i < n; i++)
+      data[i] = r.nextInt(range);
+    return data;
+  }
+
+  private DbIterator filterProject(DbIterator child) {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    return new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50)), child));
+  }
+
+  /**
+   * Filter and Project return the same tuples a batch at a time as they
+   * do one at a time, over several batches.
+   */
+  @Test public void filterProject() throws Exception {
+    int[] data = randomData(new Random(11), 3 * 5000, 100);
+    DbIterator expected = filterProject(TestUtil.createTupleList(3, data));
+    expected.open();
+    BatchIterator actual = (BatchIterator) filterProject(TestUtil.createTupleList(3, data));
+    actual.open();
+    assertEquals(rows(expected), batches(actual));
+    expected.rewind();
+    actual.rewind();
+    assertEquals(rows(expected), rows(new TupleBatch.Rows(actual)));
+  }
+
+  /* @return how many tuples op returns, and an order-independent checksum of them */
+  private long[] checksum(DbIterator op) throws Exception {
+    long[] sum = new long[2];
+    while (op.hasNext())
+      add(sum, op.next());
+    return sum;
+  }
+
+  /* @return the same, read a batch at a time */
+  private long[] batchChecksum(BatchIterator op) throws Exception {
+    long[] sum = new long[2];
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      for (int i = 0; i < batch.size(); i++)
+        add(sum, batch.getTuple(i));
+    }
+    return sum;
+  }
+
+  private void add(long[] sum, Tuple t) {
+    long h = 0;
+    for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+      h = 31 * h + t.getField(i).hashCode();
+    h *= 0x9e3779b97f4a7c15L;
+    sum[0]++;
+    sum[1] += h ^ (h >>> 29);
+  }
+
+  /**
+   * Join returns the same tuples a batch at a time, for each operator,
+   * with blocks smaller and larger than the outer child's batch, and an
+   * inner child of more than one batch.
+   */
+  @Test public void join() throws Exception {
+    Random r = new Random(12);
+    int[] lefts = randomData(r, 2 * 300, 200);
+    int[] rights = randomData(r, 2 * (TupleBatch.DEFAULT_SIZE + 100), 200);
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.NOT_EQUALS };
+    for (Predicate.Op op : ops) {
+      Join expected = new Join(new JoinPredicate(1, op, 0),
+          TestUtil.createTupleList(2, lefts), TestUtil.createTupleList(2, rights));
+      expected.open();
+      long[] want = checksum(expected);
+      for (int blockSize : new int[] { 7, 5000 }) {
+        Join actual = new Join(new JoinPredicate(1, op, 0),
+            TestUtil.createTupleList(2, lefts), TestUtil.createTupleList(2, rights));
+        actual.setBlockSize(blockSize);
+        actual.open();
+        assertArrayEquals(op + " in blocks of " + blockSize, want, batchChecksum(actual));
+        actual.rewind();
+        assertArrayEquals(op + " in blocks of " + blockSize, want, batchChecksum(actual));
+        assertNull(actual.nextBatch());
+      }
+    }
+  }
+
+  /**
+   * Join merges its children's schemas once and refills one output
+   * batch, and a block size set while it is open applies from the next
+   * block on.
+   */
+  @Test public void joinReuse() throws Exception {
+    Random r = new Random(13);
+    int[] lefts = randomData(r, 2 * 300, 20);
+    int[] rights = randomData(r, 2 * 200, 20);
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    Join expected = new Join(pred, TestUtil.createTupleList(2, lefts), TestUtil.createTupleList(2, rights));
+    expected.open();
+    long[] want = checksum(expected);
+
+    Join actual = new Join(pred, TestUtil.createTupleList(2, lefts), TestUtil.createTupleList(2, rights));
+    assertSame(actual.getTupleDesc(), actual.getTupleDesc());
+    actual.setBlockSize(50);
+    actual.open();
+    long[] sum = new long[2];
+    TupleBatch first = actual.nextBatch();
+    for (int i = 0; i < first.size(); i++)
+      add(sum, first.getTuple(i));
+    actual.setBlockSize(7);
+    TupleBatch batch;
+    while ((batch = actual.nextBatch()) != null) {
+      assertSame(first, batch);
+      for (int i = 0; i < batch.size(); i++)
+        add(sum, batch.getTuple(i));
+    }
+    assertArrayEquals(want, sum);
+  }
+
+  /**
+   * String fields are compared as StringField compares them.
+   */
+  @Test public void strings() throws Exception {
+    Object[] data = { 1, "apple", 2, "banana", 3, "grape", 4, "pineapple" };
+    Filter like = new Filter(new Predicate(1, Predicate.Op.LIKE,
+        new StringField("apple", Type.STRING_LEN)), TestUtil.createTupleList(2, data));
+    like.open();
+    TupleBatch batch = like.nextBatch();
+    assertEquals(2, batch.size());
+    assertEquals(1, batch.getInts(0)[batch.row(0)]);
+    assertEquals("pineapple", batch.getStrings(1)[batch.row(1)]);
+    assertNull(like.nextBatch());
+  }
+
+  /**
+   * SeqScan fills batches from the table's pages, keeping each tuple's
+   * RecordId.
+   */
+  @Test public void seqScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+    SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "t");
+    scan.open();
+    int n = 0;
+    TupleBatch batch;
+    while ((batch = scan.nextBatch()) != null) {
+      for (int i = 0; i < batch.size(); i++) {
+        int r = batch.row(i);
+        assertEquals(tuples.get(n).get(0).intValue(), batch.getInts(0)[r]);
+        assertNotNull(batch.getRecordId(r));
+        n++;
+      }
+    }
+    assertEquals(tuples.size(), n);
+    scan.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
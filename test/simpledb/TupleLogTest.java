@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleLogTest extends SimpleDbTestBase {
+
+	private HeapFile table;
+	private BufferPool bp;
+	private LogFile log;
+
+	@Before public void createTable() throws Exception {
+		table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+		bp = Database.getBufferPool();
+		log = Database.getLogFile();
+	}
+
+	/* count the tuples of page 0 as it is on disk */
+	private int countOnDisk() {
+		HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+		int n = 0;
+		Iterator<Tuple> it = page.iterator();
+		while (it.hasNext()) {
+			it.next();
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * A one tuple insert logs the tuple, not two page images.
+	 */
+	@Test public void insertRecordIsSmall() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		long before = log.getEndLsn();
+		bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+		long logged = log.getEndLsn() - before;
+		assertTrue("logged " + logged + " bytes", logged < 100);
+		t.commit();
+		assertEquals(11, countOnDisk());
+	}
+
+	/**
+	 * Rolling back undoes inserts and deletes that reached disk.
+	 */
+	@Test public void rollback() throws Exception {
+		Transaction t = new Transaction();
+		t.start();
+		Tuple deleted = firstTuple(t.getId());
+		bp.deleteTuple(t.getId(), deleted);
+		bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+		bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { 3, 4 }));
+		bp.flushPages(t.getId());
+		assertEquals(11, countOnDisk());
+
+		t.abort();
+		assertEquals(10, countOnDisk());
+		HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+		assertTrue(page.isSlotUsed(deleted.getRecordId().tupleno()));
+	}
+
+	private Tuple firstTuple(TransactionId tid) throws Exception {
+		DbFileIterator it = table.iterator(tid);
+		it.open();
+		Tuple first = it.next();
+		it.close();
+		return first;
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(TupleLogTest.class);
+	}
+}
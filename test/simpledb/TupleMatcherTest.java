@@ -0,0 +1,68 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleMatcherTest extends SimpleDbTestBase {
+
+  /**
+   * A compiled predicate matches the tuples Predicate.filter does, for
+   * every operator.
+   */
+  @Test public void predicates() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(1, op, new IntField(3));
+      TupleMatcher m = TupleMatcher.compile(p);
+      for (int v = 0; v < 6; v++) {
+        Tuple t = Utility.getHeapTuple(new int[] { 0, v });
+        assertEquals(op + " " + v, p.filter(t), m.matches(t));
+      }
+    }
+  }
+
+  /**
+   * String predicates are compiled too, or fall back to the Predicate.
+   */
+  @Test public void strings() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    String[] values = { "apple", "pineapple", "pear" };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, new StringField("apple", Type.STRING_LEN));
+      TupleMatcher m = TupleMatcher.compile(p);
+      for (String s : values) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField(s, Type.STRING_LEN));
+        assertEquals(op + " " + s, p.filter(t), m.matches(t));
+      }
+    }
+  }
+
+  /**
+   * A compiled join predicate matches the pairs JoinPredicate.filter does.
+   */
+  @Test public void joinPredicates() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate jp = new JoinPredicate(0, op, 1);
+      TupleMatcher.Pair m = TupleMatcher.Pair.compile(jp, Type.INT_TYPE);
+      for (int a = 0; a < 4; a++) {
+        for (int b = 0; b < 4; b++) {
+          Tuple t1 = Utility.getHeapTuple(new int[] { a });
+          Tuple t2 = Utility.getHeapTuple(new int[] { 9, b });
+          assertEquals(op + " " + a + " " + b, jp.filter(t1, t2), m.matches(t1, t2));
+        }
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleMatcherTest.class);
+  }
+}